@@ -0,0 +1,120 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import behaviorgraph.Event.Companion.InitialEvent
+import kotlin.jvm.JvmName
+
+/**
+ * Common base for State resources. It tracks when the resource was last updated and
+ * what that was at the beginning of the current event.
+ * Whether the resource updated during the current event is derived by comparing the stored event with
+ * the graph's current event, see [Graph.releaseAtEndOfEvent] for what is let go of when an event ends.
+ * Subclasses keep their current and prior values in their own fields so specialized
+ * states such as [IntState] can store them without boxing.
+ */
+abstract class AbstractState internal constructor(extent: Extent<*>, debugName: String?) :
+    Resource(extent, debugName) {
+    internal var updatedEvent: Event = InitialEvent
+    internal var priorEvent: Event = InitialEvent
+
+    // the prior value and event are only meaningful while this is true
+    internal val updatedThisEvent: Boolean get() = updatedEvent === graph.currentEvent
+
+    /**
+     * The last time the State was updated. Will return [Event.InitialEvent] for its initial value before it has been updated.
+     * A behavior must demand this State resource in order to access this property.
+     */
+    @get:JvmName("event")
+    val event: Event
+        get() {
+            assertValidAccessor()
+            return updatedEvent
+        }
+
+    /**
+     * What was the `event` property at the beginning of the current event.
+     * If this resource has justUpdated it will return the previous event.
+     * Otherwise it will return the current event.
+     */
+    @get:JvmName("traceEvent")
+    val traceEvent: Event
+        get() = if (updatedThisEvent) priorEvent else updatedEvent
+
+    /**
+     * Is there a current event and was this resource updated during this event.
+     * A behavior must demand this resource to access this property.
+     */
+    @get:JvmName("justUpdated")
+    val justUpdated: Boolean
+        get() {
+            assertValidAccessor()
+            return updatedThisEvent
+        }
+
+    override val internalJustUpdated: Boolean get() = justUpdated
+
+    // the updated and prior events
+    override fun estimatedBytes(): Long = super.estimatedBytes() + 8
+
+    override fun reset() {
+        super.reset()
+        updatedEvent = InitialEvent
+        priorEvent = InitialEvent
+    }
+
+    /**
+     * Copies the current value into the prior value. Called on the first update of each event.
+     * See [Graph.releaseAtEndOfEvent] for when it is let go of.
+     */
+    internal abstract fun savePriorValue()
+
+    /**
+     * The current value as an object that is not changed by later events, for [StateSnapshot].
+     */
+    internal abstract fun snapshotValue(): Any?
+
+    /**
+     * Validates and records an update. Returns false if there is no current event,
+     * in which case the subclass must leave its value unchanged.
+     */
+    internal fun beginUpdate(): Boolean {
+        assertValidUpdater()
+        val currentEvent = graph.currentEvent ?: return false
+        if (updatedEvent !== currentEvent) {
+            // this check prevents updating prior value if we are updated multiple times in same behavior
+            priorEvent = updatedEvent
+            savePriorValue()
+        }
+        updatedEvent = currentEvent
+        return true
+    }
+
+    internal fun endUpdate() {
+        graph.resourceTouched(this)
+    }
+
+    /**
+     * Records an update around [store], which keeps the new value in the subclass's own fields.
+     * Inlined so states with primitive fields update without allocating.
+     */
+    internal inline fun applyUpdate(store: () -> Unit) {
+        if (beginUpdate()) {
+            store()
+        }
+        endUpdate()
+    }
+
+    /**
+     * Shared body of the `justUpdatedTo` and `justUpdatedFrom` checks, [matches] compares the subclass's values.
+     */
+    internal fun justUpdatedAnd(matches: Boolean): Boolean = justUpdated && matches
+
+    internal fun describe(value: Any?): String {
+        val localDebugName = debugName ?: ""
+        val localType = super.toString()
+        val localSequence = updatedEvent.sequence
+        return "$localDebugName $localType == $value ($localSequence)"
+    }
+}
@@ -0,0 +1,124 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.Job
+import kotlin.jvm.JvmName
+import kotlin.jvm.JvmOverloads
+
+/**
+ * An AccumulatingMoment is a moment resource that collects every value it is updated with during an event.
+ * Where a [TypedMoment] keeps only the last value, this lets many inputs be batched into a single event
+ * and handled together by demanding behaviors.
+ * Values are appended to a buffer that is reused between events, so updates do not allocate per value
+ * once the buffer has grown to the typical batch size.
+ */
+class AccumulatingMoment<T> @JvmOverloads constructor(extent: Extent<*>, debugName: String? = null): Resource(extent, debugName) {
+    private val buffer: ArrayList<T> = ArrayList()
+    private var happenedEvent: Event? = null
+    private val happenedThisEvent: Boolean get() = happenedEvent != null && happenedEvent === graph.currentEvent
+    private val valuesView: List<T> = object : AbstractList<T>() {
+        override val size: Int get() = buffer.size
+        override fun get(index: Int): T = buffer[index]
+    }
+
+    /**
+     * Read only view of the values collected during the current event, in the order they were added.
+     * It is empty if the moment did not update this event.
+     * The view is reused and its contents are cleared at the end of the event, so copy it if
+     * the values are needed later (for example inside a side effect).
+     * A behavior must demand this resource to access its values.
+     */
+    @get:JvmName("values")
+    val values: List<T>
+        get() {
+            assertValidAccessor()
+            return if (happenedThisEvent) valuesView else emptyList()
+        }
+
+    /**
+     * If this moment updated during the current event, that event. Otherwise null.
+     * A behavior must demand this resource to access this property.
+     */
+    @get:JvmName("event")
+    val event: Event?
+        get() {
+            assertValidAccessor()
+            return if (happenedThisEvent) happenedEvent else null
+        }
+
+    /**
+     * Is there a current event and was this resource updated during this event.
+     * A behavior must demand this resource to access this property.
+     */
+    @get:JvmName("justUpdated")
+    val justUpdated: Boolean
+        get() {
+            assertValidAccessor()
+            return happenedThisEvent
+        }
+
+    override val internalJustUpdated: Boolean get() = justUpdated
+
+    override fun estimatedBytes(): Long = super.estimatedBytes() + FootprintEstimate.list(buffer.size) + 16
+
+    // the buffer keeps its capacity for the next event
+    override fun releasePayload() {
+        buffer.clear()
+        happenedEvent = null
+    }
+
+    override fun reset() {
+        super.reset()
+        releasePayload()
+    }
+
+    /**
+     * Create a new action and call [update].
+     */
+    @JvmOverloads
+    fun updateWithAction(value: T, debugName: String? = null): Job {
+        return graph.action(debugName) { update(value) }
+    }
+
+    /**
+     * Add a value to this event's collection and activate any dependent behaviors.
+     * A behavior must supply this resource in order to update it.
+     */
+    fun update(value: T) {
+        if (markUpdated()) {
+            buffer.add(value)
+        }
+    }
+
+    /**
+     * Add all of the values to this event's collection and activate any dependent behaviors.
+     * A behavior must supply this resource in order to update it.
+     */
+    fun updateAll(values: Collection<T>) {
+        if (markUpdated()) {
+            buffer.addAll(values)
+        }
+    }
+
+    private fun markUpdated(): Boolean {
+        assertValidUpdater()
+        val currentEvent = graph.currentEvent ?: return false
+        if (happenedEvent !== currentEvent) {
+            // only the first value in an event needs to activate subsequents
+            happenedEvent = currentEvent
+            graph.resourceTouched(this)
+            graph.releaseAtEndOfEvent(this)
+        }
+        return true
+    }
+
+    override fun toString(): String {
+        val localDebugName = debugName ?: ""
+        val localType = super.toString()
+        val localCount = if (happenedThisEvent) buffer.size else 0
+        val localSequence = if (happenedThisEvent) happenedEvent?.sequence else "NA"
+        return "$localDebugName $localType == $localCount values ($localSequence)"
+    }
+}
@@ -3,6 +3,8 @@
 //
 package behaviorgraph
 
+import behaviorgraph.Event.Companion.NoSequence
+
 /**
  * A behavior is a block of code together with its dependency relationships (links). They are one of the two node types in a behavior graph. You define behaviors using the behavior() factory method of an Extent.
  *
@@ -14,19 +16,25 @@ class Behavior<T: Any>(
     internal var thunk: ExtentThunk<T>
 ) : Comparable<Behavior<*>> {
     /**
-     * The current set of all Resources which the behavior demands.
+     * Dense identifier assigned by the [Graph] while the behavior is in the graph, -1 otherwise.
+     * Behavior ids start at 0 and the ids of removed behaviors are given to ones added later.
      */
-    var demands: MutableSet<Resource>? = null
+    var id: Int = -1
         internal set
-    internal var orderingDemands: MutableSet<Resource>?  = null
+
+    /**
+     * The current set of all Resources which the behavior demands.
+     */
+    val demands: MutableSet<Resource>? get() = internalDemands
+    internal var internalDemands: CompactSet<Resource>? = null
+    internal var orderingDemands: CompactSet<Resource>? = null
 
     /**
      * The current set of all Resources which the behavior supplies.
      */
-    var supplies: Set<Resource>? = null
-        internal set
-    internal var enqueuedWhen: Long? = null
-    internal var removedWhen: Long? = null
+    val supplies: Set<Resource>? get() = internalSupplies
+    internal var internalSupplies: CompactSet<Resource>? = null
+    internal var removedWhen: Long = NoSequence
     internal var orderingState = OrderingState.Untracked
     var order: Long = 0
         internal set
@@ -41,6 +49,31 @@ class Behavior<T: Any>(
         this.untrackedSupplies = supplies
     }
 
+    internal fun estimatedBytes(): Long {
+        return FootprintEstimate.BEHAVIOR_BYTES +
+                (internalDemands?.estimatedBytes() ?: 0) +
+                (orderingDemands?.estimatedBytes() ?: 0) +
+                (internalSupplies?.estimatedBytes() ?: 0) +
+                FootprintEstimate.links(untrackedDemands) +
+                FootprintEstimate.links(untrackedSupplies) +
+                FootprintEstimate.links(untrackedDynamicDemands) +
+                FootprintEstimate.links(untrackedDynamicSupplies)
+    }
+
+    /**
+     * Clears links and removal status so the behavior can be added again when its extent is reused.
+     */
+    internal fun reset() {
+        internalDemands = null
+        orderingDemands = null
+        internalSupplies = null
+        untrackedDynamicDemands = null
+        untrackedDynamicSupplies = null
+        removedWhen = NoSequence
+        orderingState = OrderingState.Untracked
+        order = 0
+    }
+
     override fun compareTo(other: Behavior<*>): Int {
         return order.compareTo(other.order)
     }
@@ -49,7 +49,7 @@ interface DynamicLinkable<T> : Linkable {
 internal class GenericDynamicLinkable<T>(
     override val switchingResources: List<Linkable>,
     override val relinkingOrder: RelinkingOrder?,
-    private val dynamicResources: (ctx: T, MutableList<Linkable?>) -> Unit
+    internal val dynamicResources: (ctx: T, MutableList<Linkable?>) -> Unit
 ) : DynamicLinkable<T> {
     override fun appendDemands(graph: Graph, ctx: T, demands: MutableList<Linkable?>) {
         dynamicResources(ctx, demands)
@@ -97,6 +97,26 @@ internal fun <T:Extent<*>, U: Iterable<T>> State<out U>.each(
     return EachDynamicLinkable(listOf(this), relinkingOrder, dynamicResources)
 }
 
+/**
+ * Thunk for the behaviors that [BehaviorBuilder] creates to relink dynamic demands or supplies.
+ * It is a named class so [ExtentTemplate] can recognize relinking behaviors and recreate them for another extent.
+ */
+internal class DynamicRelinkThunk<T: Any>(
+    val mainBehavior: Behavior<T>,
+    val linkable: DynamicLinkable<T>,
+    val relinksDemands: Boolean
+) : ExtentThunk<T> {
+    override fun invoke(ctx: T) {
+        val links = mutableListOf<Linkable?>()
+        linkable.appendDemands(mainBehavior.extent.graph, ctx, links)
+        if (relinksDemands) {
+            mainBehavior.setDynamicDemands(links)
+        } else {
+            mainBehavior.setDynamicSupplies(links)
+        }
+    }
+}
+
 /**
  * Provides a fluent API interface for creating a [Behavior].
  * Use the [Behavior] method on [Extent] to use.
@@ -343,11 +363,7 @@ class BehaviorBuilder<T: Any>(
                 dynamicDemandResource?.let { resource -> demands.add(resource) }
             }
             // create the behavior that determines new demands each time it runs
-            val orderingBehavior = Behavior(extent, demands, supplies) {
-                val mutableListOfDemands = mutableListOf<Linkable?>()
-                dynamicDemandable.appendDemands(extent.graph, it, mutableListOfDemands)
-                mainBehavior.setDynamicDemands(mutableListOfDemands)
-            }
+            val orderingBehavior = Behavior(extent, demands, supplies, DynamicRelinkThunk(mainBehavior, dynamicDemandable, true))
             extent.addBehavior(orderingBehavior)
         }
 
@@ -361,11 +377,7 @@ class BehaviorBuilder<T: Any>(
             } else {
                 dynamicSupplyResource?.let { demands.add(it) }
             }
-            val orderingBehavior = Behavior(extent, demands, supplies) {
-                val mutableListOfSupplies = mutableListOf<Linkable?>()
-                dynamicSuppliable.appendDemands(extent.graph, it, mutableListOfSupplies)
-                mainBehavior.setDynamicSupplies(mutableListOfSupplies)
-            }
+            val orderingBehavior = Behavior(extent, demands, supplies, DynamicRelinkThunk(mainBehavior, dynamicSuppliable, false))
             extent.addBehavior(orderingBehavior)
         }
 
@@ -0,0 +1,90 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.Job
+import kotlin.jvm.JvmName
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A [State] specialized for `Boolean` values.
+ * Current and prior values are kept in primitive fields so updates do not allocate.
+ * Its members behave like those of [State] with `==` as the equality.
+ */
+class BooleanState @JvmOverloads constructor(extent: Extent<*>, private val initialValue: Boolean, debugName: String? = null) :
+    AbstractState(extent, debugName) {
+    private var currentValue: Boolean = initialValue
+    private var priorValue: Boolean = initialValue
+
+    /**
+     * See [State.value].
+     */
+    @get:JvmName("value")
+    val value: Boolean
+        get() {
+            assertValidAccessor()
+            return currentValue
+        }
+
+    /**
+     * See [State.traceValue].
+     */
+    @get:JvmName("traceValue")
+    val traceValue: Boolean
+        get() = if (updatedThisEvent) priorValue else currentValue
+
+    /**
+     * See [State.updateWithAction].
+     */
+    @JvmOverloads
+    fun updateWithAction(newValue: Boolean, debugName: String? = null): Job {
+        return graph.action(debugName, { update(newValue) })
+    }
+
+    /**
+     * See [State.update].
+     */
+    fun update(newValue: Boolean) {
+        if (newValue != currentValue) {
+            updateForce(newValue)
+        }
+    }
+
+    /**
+     * See [State.updateForce].
+     */
+    fun updateForce(newValue: Boolean) {
+        applyUpdate { currentValue = newValue }
+    }
+
+    /**
+     * See [State.justUpdatedTo].
+     */
+    fun justUpdatedTo(toValue: Boolean): Boolean = justUpdatedAnd(currentValue == toValue)
+
+    /**
+     * See [State.justUpdatedFrom].
+     */
+    fun justUpdatedFrom(fromValue: Boolean): Boolean = justUpdatedAnd(priorValue == fromValue)
+
+    /**
+     * See [State.justUpdatedToFrom].
+     */
+    fun justUpdatedToFrom(toValue: Boolean, fromValue: Boolean): Boolean =
+        justUpdatedAnd(currentValue == toValue && priorValue == fromValue)
+
+    override fun savePriorValue() {
+        priorValue = currentValue
+    }
+
+    override fun snapshotValue(): Any? = currentValue
+
+    override fun reset() {
+        super.reset()
+        currentValue = initialValue
+        priorValue = initialValue
+    }
+
+    override fun toString(): String = describe(currentValue)
+}
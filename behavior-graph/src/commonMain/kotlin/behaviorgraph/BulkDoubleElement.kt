@@ -0,0 +1,94 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.jvm.JvmName
+
+/**
+ * A resource standing for a single value of a [BulkDoubleState]. Get one with [BulkDoubleState.element].
+ * A behavior that demands it is only activated when that value changes.
+ * It is supplied by whichever behavior supplies the bulk state.
+ * The bulk state lets go of an element once no behavior demands it, so [BulkDoubleState.element] may return a new one later.
+ */
+class BulkDoubleElement internal constructor(val bulk: BulkDoubleState, val index: Int) :
+    Resource(bulk.extent, bulk.debugName?.let { "$it[$index]" }) {
+    private var updatedEvent: Event? = null
+    // false once released by the bulk state because nothing demands it
+    internal var registered: Boolean = true
+    // another resource for the same index, only when a released one is demanded again
+    internal var nextForIndex: BulkDoubleElement? = null
+
+    init {
+        suppliedBy = bulk.suppliedBy
+    }
+
+    /**
+     * The current value.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("value")
+    val value: Double
+        get() {
+            assertValidAccessor()
+            return bulk.valueAt(index)
+        }
+
+    /**
+     * The last event this value changed, or null if it hasn't changed since this resource was created.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("event")
+    val event: Event?
+        get() {
+            assertValidAccessor()
+            return updatedEvent
+        }
+
+    /**
+     * Is there a current event and did this value change during this event.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("justUpdated")
+    val justUpdated: Boolean
+        get() {
+            assertValidAccessor()
+            return updatedEvent != null && updatedEvent === graph.currentEvent
+        }
+
+    override val internalJustUpdated: Boolean get() = justUpdated
+
+    override val belongsToExtent: Boolean get() = false
+
+    override fun demandAdded() {
+        if (!registered) {
+            bulk.retainElement(this)
+        }
+    }
+
+    override fun demandRemoved() {
+        if (subsequents.size == 0 && registered) {
+            bulk.releaseElement(this)
+        }
+    }
+
+    // released at the end of the event that created it if nothing demands it by then
+    override fun releasePayload() {
+        if (subsequents.size == 0 && registered) {
+            bulk.releaseElement(this)
+        }
+    }
+
+    override fun reset() {
+        super.reset()
+        updatedEvent = null
+    }
+
+    internal fun elementChanged() {
+        val currentEvent = graph.currentEvent ?: return
+        if (updatedEvent !== currentEvent) {
+            updatedEvent = currentEvent
+            graph.resourceTouched(this)
+        }
+    }
+}
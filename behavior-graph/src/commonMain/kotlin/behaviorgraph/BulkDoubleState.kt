@@ -0,0 +1,285 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import behaviorgraph.Event.Companion.InitialEvent
+import behaviorgraph.Event.Companion.NoSequence
+import kotlinx.coroutines.Job
+import kotlin.jvm.JvmName
+
+/**
+ * A single resource holding a fixed number of double values, for modeling very large numbers of
+ * numeric states without a [Resource] object per value.
+ * Values are kept in one contiguous primitive array (or off heap storage where the platform has it)
+ * and changes during an event are tracked with a bitmap and a list of changed indices.
+ *
+ * Demanding the BulkDoubleState itself activates a behavior when any value changes; it can then visit
+ * just the changed indices with [justUpdatedCount] and [justUpdatedIndex].
+ * Behaviors that only care about a few values can demand [element] resources instead.
+ * A behavior must supply this resource in order to update it.
+ */
+class BulkDoubleState internal constructor(
+    extent: Extent<*>,
+    size: Int,
+    private val initialValue: Double,
+    offHeap: Boolean,
+    debugName: String?
+) : Resource(extent, debugName) {
+    private val storage: DoubleStorage =
+        (if (offHeap) extent.graph.platformSpecific.makeOffHeapDoubleStorage(size) else null) ?: ArrayDoubleStorage(size)
+    private val changedBits = LongArray((size + 63) ushr 6)
+    private var changedIndices = IntArray(0)
+    private var changedCount = 0
+    private var updatedEvent: Event = InitialEvent
+    // created on demand, only the few demanded indices get an element resource
+    private var elements: HashMap<Int, BulkDoubleElement>? = null
+
+    init {
+        if (initialValue != 0.0 || storage !is ArrayDoubleStorage) {
+            fillInitialValue()
+        }
+    }
+
+    private fun fillInitialValue() {
+        for (i in 0 until storage.size) {
+            storage[i] = initialValue
+        }
+    }
+
+    /**
+     * Number of values.
+     */
+    @get:JvmName("size")
+    val size: Int get() = storage.size
+
+    /**
+     * The current value at [index].
+     * A behavior must demand this resource in order to access its values.
+     */
+    operator fun get(index: Int): Double {
+        assertValidAccessor()
+        return storage[index]
+    }
+
+    /**
+     * The last event any value was updated. Will return [Event.InitialEvent] before the first update.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("event")
+    val event: Event
+        get() {
+            assertValidAccessor()
+            return updatedEvent
+        }
+
+    /**
+     * Is there a current event and did any value change during this event.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("justUpdated")
+    val justUpdated: Boolean
+        get() {
+            assertValidAccessor()
+            return updatedEvent === graph.currentEvent
+        }
+
+    override val internalJustUpdated: Boolean get() = justUpdated
+
+    override fun estimatedBytes(): Long {
+        // off heap values are not part of the heap footprint
+        val valueBytes = if (storage is ArrayDoubleStorage) FootprintEstimate.longArray(storage.size) else 0
+        var elementBytes = elements?.let { FootprintEstimate.hashed(it.size) } ?: 0
+        forEachDependentResource { elementBytes += it.estimatedBytes() }
+        return super.estimatedBytes() + valueBytes + FootprintEstimate.longArray(changedBits.size) +
+                FootprintEstimate.intArray(changedIndices.size) + elementBytes
+    }
+
+    override fun reset() {
+        super.reset()
+        resetChanges()
+        updatedEvent = InitialEvent
+        fillInitialValue()
+        // elements still demanded by the extent's behaviors are retained again when they are linked
+        forEachDependentResource {
+            val element = it as BulkDoubleElement
+            element.reset()
+            element.registered = false
+        }
+        elements = null
+    }
+
+    /**
+     * Did the value at [index] change during the current event.
+     * A behavior must demand this resource in order to access this property.
+     */
+    fun justUpdated(index: Int): Boolean {
+        return justUpdated && isMarked(index)
+    }
+
+    /**
+     * Number of distinct indices changed during the current event.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("justUpdatedCount")
+    val justUpdatedCount: Int
+        get() = if (justUpdated) changedCount else 0
+
+    /**
+     * The [n]th index changed during the current event, in the order they were first changed.
+     */
+    fun justUpdatedIndex(n: Int): Int {
+        if (n >= justUpdatedCount) {
+            throw IndexOutOfBoundsException("$n of $changedCount")
+        }
+        return changedIndices[n]
+    }
+
+    /**
+     * Create a new action and call [update].
+     */
+    fun updateWithAction(index: Int, newValue: Double, debugName: String? = null): Job {
+        return graph.action(debugName, { update(index, newValue) })
+    }
+
+    /**
+     * Set the value at [index] and activate dependent behaviors.
+     * If the new value is `==` to the current value nothing is updated.
+     */
+    fun update(index: Int, newValue: Double) {
+        if (storage[index] == newValue) {
+            return
+        }
+        updateForce(index, newValue)
+    }
+
+    /**
+     * Set the value at [index] and activate dependent behaviors without checking for equality.
+     */
+    fun updateForce(index: Int, newValue: Double) {
+        assertValidUpdater()
+        val currentEvent = graph.currentEvent ?: return
+        if (updatedEvent !== currentEvent) {
+            updatedEvent = currentEvent
+            graph.resourceTouched(this)
+            graph.releaseAtEndOfEvent(this)
+        }
+        storage[index] = newValue
+        if (!isMarked(index)) {
+            changedBits[index ushr 6] = changedBits[index ushr 6] or (1L shl index)
+            if (changedCount == changedIndices.size) {
+                changedIndices = changedIndices.copyOf(if (changedCount < 8) 8 else changedCount * 2)
+            }
+            changedIndices[changedCount] = index
+            changedCount++
+        }
+        var element = elements?.get(index)
+        while (element != null) {
+            element.elementChanged()
+            element = element.nextForIndex
+        }
+    }
+
+    /**
+     * Returns the resource for the value at [index], creating it the first time it is asked for.
+     * Demand it to be activated only when that value changes.
+     * Once no behavior demands it the resource is released, and a later call may return a new one.
+     */
+    fun element(index: Int): BulkDoubleElement {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("$index of $size")
+        }
+        val localElements = elements ?: HashMap<Int, BulkDoubleElement>().also { elements = it }
+        return localElements.getOrPut(index) { BulkDoubleElement(this, index).also { elementCreated(it) } }
+    }
+
+    private fun elementCreated(element: BulkDoubleElement) {
+        if (extent.addedToGraphWhen != NoSequence) {
+            graph.assignId(element)
+        }
+        // an element that is only looked at is let go of once the event is over
+        if (graph.processingChangesOnCurrentThread) {
+            graph.releaseAtEndOfEvent(element)
+        }
+    }
+
+    // linked again after being released, possibly alongside a newer resource for the same index
+    internal fun retainElement(element: BulkDoubleElement) {
+        val localElements = elements ?: HashMap<Int, BulkDoubleElement>().also { elements = it }
+        element.nextForIndex = localElements[element.index]
+        localElements[element.index] = element
+        element.registered = true
+        element.suppliedBy = suppliedBy
+        if (extent.addedToGraphWhen != NoSequence) {
+            graph.assignId(element)
+        }
+    }
+
+    // nothing demands the element anymore so it no longer needs to follow changes
+    internal fun releaseElement(element: BulkDoubleElement) {
+        val localElements = elements ?: return
+        val head = localElements[element.index]
+        if (head === element) {
+            val next = element.nextForIndex
+            if (next == null) {
+                localElements.remove(element.index)
+            } else {
+                localElements[element.index] = next
+            }
+        } else {
+            var previous = head
+            while (previous != null && previous.nextForIndex !== element) {
+                previous = previous.nextForIndex
+            }
+            previous?.nextForIndex = element.nextForIndex
+        }
+        element.nextForIndex = null
+        element.registered = false
+        graph.releaseId(element)
+    }
+
+    internal fun valueAt(index: Int): Double = storage[index]
+
+    internal fun isMarked(index: Int): Boolean = (changedBits[index ushr 6] and (1L shl index)) != 0L
+
+    private fun resetChanges() {
+        for (i in 0 until changedCount) {
+            changedBits[changedIndices[i] ushr 6] = 0
+        }
+        changedCount = 0
+    }
+
+    override fun releasePayload() {
+        resetChanges()
+    }
+
+    override fun supplierChanged() {
+        forEachDependentResource { it.suppliedBy = suppliedBy }
+    }
+
+    override fun forEachDependentResource(block: (Resource) -> Unit) {
+        val localElements = elements ?: return
+        for (head in localElements.values) {
+            var element: BulkDoubleElement? = head
+            while (element != null) {
+                block(element)
+                element = element.nextForIndex
+            }
+        }
+    }
+
+    override fun toString(): String {
+        val localDebugName = debugName ?: ""
+        val localType = super.toString()
+        return "$localDebugName $localType == $size values ($changedCount changed in ${updatedEvent.sequence})"
+    }
+}
+
+private class ArrayDoubleStorage(size: Int) : DoubleStorage {
+    private val values = DoubleArray(size)
+    override val size: Int get() = values.size
+    override fun get(index: Int): Double = values[index]
+    override fun set(index: Int, value: Double) {
+        values[index] = value
+    }
+}
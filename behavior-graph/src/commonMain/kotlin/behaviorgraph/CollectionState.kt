@@ -0,0 +1,89 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.jvm.JvmName
+
+/**
+ * Base for State resources that hold a collection which is changed in place.
+ * Instead of replacing the whole value, updates are made through mutation methods which
+ * record what changed during the current event. Demanding behaviors can then use [justAdded]
+ * and [justRemoved] to do work proportional to the size of the change rather than the size of
+ * the collection.
+ *
+ * Subclasses keep a copy of their initial contents for [reset]. Most collections start empty, so that case
+ * shares the standard empty collection instead of allocating a copy.
+ *
+ * @param C the type of entries recorded in the change log (elements for lists and sets, keys for maps)
+ */
+abstract class CollectionState<C> internal constructor(extent: Extent<*>, debugName: String?) :
+    AbstractState(extent, debugName) {
+    internal val addedLog: ArrayList<C> = ArrayList()
+    internal val removedLog: ArrayList<C> = ArrayList()
+
+    /**
+     * Entries added during the current event in the order they were added.
+     * Empty if the resource did not update this event.
+     * A behavior must demand this resource to access this property.
+     */
+    @get:JvmName("justAdded")
+    val justAdded: List<C>
+        get() {
+            assertValidAccessor()
+            return if (updatedThisEvent) addedLog else emptyList()
+        }
+
+    /**
+     * Entries removed during the current event in the order they were removed.
+     * Empty if the resource did not update this event.
+     * A behavior must demand this resource to access this property.
+     */
+    @get:JvmName("justRemoved")
+    val justRemoved: List<C>
+        get() {
+            assertValidAccessor()
+            return if (updatedThisEvent) removedLog else emptyList()
+        }
+
+    /**
+     * Marks this resource as updated before a mutation. Only the first change in an event
+     * activates dependent behaviors. Returns false if there is no current event, in which case
+     * the collection must be left unchanged.
+     */
+    internal fun beginChange(): Boolean {
+        val currentEvent = graph.currentEvent
+        if (currentEvent != null && updatedEvent === currentEvent) {
+            assertValidUpdater()
+            return true
+        }
+        val updated = beginUpdate()
+        if (updated) {
+            graph.releaseAtEndOfEvent(this)
+        }
+        endUpdate()
+        return updated
+    }
+
+    override fun savePriorValue() {
+        // collections are changed in place, the change log takes the place of a prior value
+    }
+
+    override fun estimatedBytes(): Long {
+        return super.estimatedBytes() + FootprintEstimate.list(addedLog.size) + FootprintEstimate.list(removedLog.size)
+    }
+
+    override fun releasePayload() {
+        resetChangeLog()
+    }
+
+    override fun reset() {
+        super.reset()
+        resetChangeLog()
+    }
+
+    internal open fun resetChangeLog() {
+        addedLog.clear()
+        removedLog.clear()
+    }
+}
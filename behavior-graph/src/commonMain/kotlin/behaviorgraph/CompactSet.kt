@@ -0,0 +1,200 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+/**
+ * Array backed set used for the links between behaviors and resources.
+ *
+ * Most behaviors demand and supply only a handful of resources and most resources
+ * have only a handful of subsequents, so elements are stored in a single growable array
+ * and membership is a linear scan. Once a set grows past [INDEX_THRESHOLD] elements
+ * an open addressing index of positions is added so large fan-outs still have
+ * constant time lookup. Neither form allocates per element.
+ *
+ * Removing an element moves the last element into its slot, so iteration order is
+ * not preserved across removals.
+ * Hot paths in the graph iterate with [size] and [get] to avoid allocating an iterator.
+ */
+internal class CompactSet<T : Any>(initialCapacity: Int = 0) : AbstractMutableSet<T>() {
+    private var elements: Array<Any?> = if (initialCapacity > 0) arrayOfNulls(initialCapacity) else EMPTY_ELEMENTS
+    private var count: Int = 0
+
+    // slots hold (position + 1) into elements, 0 means empty
+    private var index: IntArray? = null
+
+    override val size: Int get() = count
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun get(position: Int): T = elements[position] as T
+
+    override fun contains(element: T): Boolean = positionOf(element) >= 0
+
+    override fun add(element: T): Boolean {
+        if (positionOf(element) >= 0) {
+            return false
+        }
+        if (count == elements.size) {
+            elements = elements.copyOf(if (count < 2) 2 else count * 2)
+        }
+        elements[count] = element
+        count++
+        val localIndex = index
+        if (localIndex != null) {
+            if (count * 2 > localIndex.size) {
+                rebuildIndex()
+            } else {
+                insertIndex(localIndex, element, count - 1)
+            }
+        } else if (count > INDEX_THRESHOLD) {
+            rebuildIndex()
+        }
+        return true
+    }
+
+    override fun remove(element: T): Boolean {
+        val position = positionOf(element)
+        if (position < 0) {
+            return false
+        }
+        removeAt(position)
+        return true
+    }
+
+    internal fun estimatedBytes(): Long {
+        val elementBytes = if (elements === EMPTY_ELEMENTS) 0 else FootprintEstimate.referenceArray(elements.size)
+        val indexBytes = index?.let { FootprintEstimate.intArray(it.size) } ?: 0
+        return 24 + elementBytes + indexBytes
+    }
+
+    override fun clear() {
+        elements.fill(null, 0, count)
+        count = 0
+        index = null
+    }
+
+    override fun iterator(): MutableIterator<T> = object : MutableIterator<T> {
+        private var cursor = 0
+        private var lastReturned = -1
+
+        override fun hasNext(): Boolean = cursor < count
+
+        override fun next(): T {
+            if (cursor >= count) {
+                throw NoSuchElementException()
+            }
+            lastReturned = cursor
+            cursor++
+            return get(lastReturned)
+        }
+
+        override fun remove() {
+            check(lastReturned >= 0) { "next() must be called before remove()" }
+            removeAt(lastReturned)
+            // the last element now occupies the removed slot so visit it next
+            cursor = lastReturned
+            lastReturned = -1
+        }
+    }
+
+    private fun positionOf(element: T): Int {
+        val localIndex = index
+        if (localIndex == null) {
+            for (i in 0 until count) {
+                if (elements[i] == element) {
+                    return i
+                }
+            }
+            return -1
+        }
+        val mask = localIndex.size - 1
+        var slot = slotFor(element, mask)
+        while (true) {
+            val entry = localIndex[slot]
+            if (entry == 0) {
+                return -1
+            }
+            if (elements[entry - 1] == element) {
+                return entry - 1
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    private fun removeAt(position: Int) {
+        val last = count - 1
+        val localIndex = index
+        if (localIndex != null) {
+            removeIndex(localIndex, position)
+            if (position != last) {
+                replaceIndex(localIndex, get(last), last, position)
+            }
+        }
+        elements[position] = elements[last]
+        elements[last] = null
+        count = last
+    }
+
+    private fun rebuildIndex() {
+        var capacity = INDEX_THRESHOLD * 4
+        while (capacity < count * 4) {
+            capacity *= 2
+        }
+        val newIndex = IntArray(capacity)
+        for (i in 0 until count) {
+            insertIndex(newIndex, get(i), i)
+        }
+        index = newIndex
+    }
+
+    private fun insertIndex(localIndex: IntArray, element: T, position: Int) {
+        val mask = localIndex.size - 1
+        var slot = slotFor(element, mask)
+        while (localIndex[slot] != 0) {
+            slot = (slot + 1) and mask
+        }
+        localIndex[slot] = position + 1
+    }
+
+    private fun replaceIndex(localIndex: IntArray, element: T, oldPosition: Int, newPosition: Int) {
+        val mask = localIndex.size - 1
+        var slot = slotFor(element, mask)
+        while (localIndex[slot] != oldPosition + 1) {
+            slot = (slot + 1) and mask
+        }
+        localIndex[slot] = newPosition + 1
+    }
+
+    private fun removeIndex(localIndex: IntArray, position: Int) {
+        // linear probing deletion without tombstones: shift back any later entries whose
+        // probe sequence passes through the hole so lookups never stop early
+        val mask = localIndex.size - 1
+        var hole = slotFor(get(position), mask)
+        while (localIndex[hole] != position + 1) {
+            hole = (hole + 1) and mask
+        }
+        var next = (hole + 1) and mask
+        while (localIndex[next] != 0) {
+            val ideal = slotFor(get(localIndex[next] - 1), mask)
+            if (((next - ideal) and mask) >= ((next - hole) and mask)) {
+                localIndex[hole] = localIndex[next]
+                hole = next
+            }
+            next = (next + 1) and mask
+        }
+        localIndex[hole] = 0
+    }
+
+    private fun slotFor(element: T, mask: Int): Int {
+        val hash = element.hashCode()
+        return (hash xor (hash ushr 16)) and mask
+    }
+
+    companion object {
+        /**
+         * Sets at or below this size are searched linearly.
+         */
+        const val INDEX_THRESHOLD = 8
+        private val EMPTY_ELEMENTS: Array<Any?> = arrayOfNulls(0)
+    }
+}
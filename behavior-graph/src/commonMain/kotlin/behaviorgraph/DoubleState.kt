@@ -0,0 +1,91 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.Job
+import kotlin.jvm.JvmName
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A [State] specialized for `Double` values.
+ * Values are compared with primitive `==`, so updating to `NaN` always counts as a change.
+ * Current and prior values are kept in primitive fields so updates do not allocate.
+ * Its members behave like those of [State] with `==` as the equality.
+ */
+class DoubleState @JvmOverloads constructor(extent: Extent<*>, private val initialValue: Double, debugName: String? = null) :
+    AbstractState(extent, debugName) {
+    private var currentValue: Double = initialValue
+    private var priorValue: Double = initialValue
+
+    /**
+     * See [State.value].
+     */
+    @get:JvmName("value")
+    val value: Double
+        get() {
+            assertValidAccessor()
+            return currentValue
+        }
+
+    /**
+     * See [State.traceValue].
+     */
+    @get:JvmName("traceValue")
+    val traceValue: Double
+        get() = if (updatedThisEvent) priorValue else currentValue
+
+    /**
+     * See [State.updateWithAction].
+     */
+    @JvmOverloads
+    fun updateWithAction(newValue: Double, debugName: String? = null): Job {
+        return graph.action(debugName, { update(newValue) })
+    }
+
+    /**
+     * See [State.update].
+     */
+    fun update(newValue: Double) {
+        if (newValue != currentValue) {
+            updateForce(newValue)
+        }
+    }
+
+    /**
+     * See [State.updateForce].
+     */
+    fun updateForce(newValue: Double) {
+        applyUpdate { currentValue = newValue }
+    }
+
+    /**
+     * See [State.justUpdatedTo].
+     */
+    fun justUpdatedTo(toValue: Double): Boolean = justUpdatedAnd(currentValue == toValue)
+
+    /**
+     * See [State.justUpdatedFrom].
+     */
+    fun justUpdatedFrom(fromValue: Double): Boolean = justUpdatedAnd(priorValue == fromValue)
+
+    /**
+     * See [State.justUpdatedToFrom].
+     */
+    fun justUpdatedToFrom(toValue: Double, fromValue: Double): Boolean =
+        justUpdatedAnd(currentValue == toValue && priorValue == fromValue)
+
+    override fun savePriorValue() {
+        priorValue = currentValue
+    }
+
+    override fun snapshotValue(): Any? = currentValue
+
+    override fun reset() {
+        super.reset()
+        currentValue = initialValue
+        priorValue = initialValue
+    }
+
+    override fun toString(): String = describe(currentValue)
+}
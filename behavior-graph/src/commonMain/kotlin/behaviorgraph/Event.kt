@@ -36,5 +36,10 @@ class Event internal constructor(sequence: Long, timestamp: Long) {
          * New [State] resources automatically are given this event to pair with their initial values.
          */
         val InitialEvent: Event = Event(0, 0)
+
+        /**
+         * Sentinel stored in primitive sequence fields when there is no event (such as a behavior that has not been removed).
+         */
+        internal const val NoSequence: Long = -1
     }
 }
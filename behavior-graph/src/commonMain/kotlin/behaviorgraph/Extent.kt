@@ -3,6 +3,7 @@
 //
 package behaviorgraph
 
+import behaviorgraph.Event.Companion.NoSequence
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.Job
 import kotlin.jvm.JvmOverloads
@@ -45,7 +46,12 @@ open class Extent<ExtentContext: Any> @JvmOverloads constructor(val graph: Graph
     var debugName: String = graph.platformSpecific.defaultNameForExtent(this)
     internal var behaviors: MutableList<Behavior<ExtentContext>> = mutableListOf()
     internal var resources: MutableList<Resource> = mutableListOf()
-    internal var addedToGraphWhen: Long? = null
+    internal var addedToGraphWhen: Long = NoSequence
+    internal var removedWhen: Long = NoSequence
+    internal var pooled: Boolean = false
+    internal var registrySlot: Int = -1
+    // behaviors created before the extent was first added, the rest are added late and dropped by reset
+    internal var definedBehaviorCount: Int = -1
     internal var didAddBehavior: Behavior<ExtentContext>
     internal var lifetime: ExtentLifetime? = null
 
@@ -86,12 +92,36 @@ open class Extent<ExtentContext: Any> @JvmOverloads constructor(val graph: Graph
         }
     }
 
+    /**
+     * Returns resources and behaviors to how they were when created so a removed extent can be added again.
+     * Only call once the event that removed it has completed.
+     */
+    internal fun reset() {
+        lifetime?.clearExtentRelationship(this)
+        // late behaviors such as observers and bridge forwarders belong to the previous use
+        if (definedBehaviorCount >= 0) {
+            while (behaviors.size > definedBehaviorCount) {
+                behaviors.removeAt(behaviors.size - 1)
+            }
+        }
+        for (resource in resources) {
+            resource.reset()
+        }
+        for (behavior in behaviors) {
+            behavior.reset()
+        }
+        removedWhen = NoSequence
+    }
+
     internal fun addBehavior(behavior: Behavior<ExtentContext>) {
         this.behaviors.add(behavior)
     }
 
     internal fun addResource(resource: Resource) {
         this.resources.add(resource)
+        if (addedToGraphWhen != NoSequence) {
+            graph.assignId(resource)
+        }
     }
 
     /**
@@ -136,7 +166,7 @@ open class Extent<ExtentContext: Any> @JvmOverloads constructor(val graph: Graph
     @JvmOverloads
     fun removeFromGraph(strategy: ExtentRemoveStrategy = ExtentRemoveStrategy.ExtentOnly) {
         if (graph.processingChangesOnCurrentThread) {
-            if (addedToGraphWhen != null) {
+            if (addedToGraphWhen != NoSequence) {
                 if (strategy == ExtentRemoveStrategy.ExtentOnly || this.lifetime == null) {
                     graph.removeExtent(this)
                 } else {
@@ -152,12 +182,12 @@ open class Extent<ExtentContext: Any> @JvmOverloads constructor(val graph: Graph
 
     /**
      * Ensure all resources in self (not superclasses) have a debugName.
-     * future: move to platformSupport since this is not portable beyond the jvm
+     * Uses the [ResourceNamer] registered for the class if there is one, otherwise platform reflection.
      */
-    private fun nameResources() {
+    internal fun nameResources() {
         // context object or this extent if none
         val focus: Any = context ?: this
-        graph.platformSpecific.nameResources(focus)
+        graph.nameResources(focus)
     }
 
     /**
@@ -176,6 +206,14 @@ open class Extent<ExtentContext: Any> @JvmOverloads constructor(val graph: Graph
         return TypedMoment<T>(this, debugName)
     }
 
+    /**
+     * Create an [AccumulatingMoment] instance associated with this [Extent]
+     */
+    @JvmOverloads
+    fun <T> accumulatingMoment(debugName: String? = null): AccumulatingMoment<T> {
+        return AccumulatingMoment<T>(this, debugName)
+    }
+
     /**
      * Creates a [Moment] instance associated with this [Extent]
      */
@@ -186,10 +224,76 @@ open class Extent<ExtentContext: Any> @JvmOverloads constructor(val graph: Graph
 
     /**
      * Creates a [State] instance associated with this [Extent].
+     * Pass an [equality] to change how updates with the same value are detected.
+     */
+    @JvmOverloads
+    fun <T> state(initialState: T, debugName: String? = null, equality: StateEquality<T> = StateEquality.structural()): State<T> {
+        return State<T>(this, initialState, debugName, equality)
+    }
+
+    /**
+     * Creates an [IntState] instance associated with this [Extent].
+     */
+    @JvmOverloads
+    fun intState(initialValue: Int, debugName: String? = null): IntState {
+        return IntState(this, initialValue, debugName)
+    }
+
+    /**
+     * Creates a [LongState] instance associated with this [Extent].
+     */
+    @JvmOverloads
+    fun longState(initialValue: Long, debugName: String? = null): LongState {
+        return LongState(this, initialValue, debugName)
+    }
+
+    /**
+     * Creates a [DoubleState] instance associated with this [Extent].
+     */
+    @JvmOverloads
+    fun doubleState(initialValue: Double, debugName: String? = null): DoubleState {
+        return DoubleState(this, initialValue, debugName)
+    }
+
+    /**
+     * Creates a [BooleanState] instance associated with this [Extent].
+     */
+    @JvmOverloads
+    fun booleanState(initialValue: Boolean, debugName: String? = null): BooleanState {
+        return BooleanState(this, initialValue, debugName)
+    }
+
+    /**
+     * Creates a [ListState] instance associated with this [Extent].
+     */
+    @JvmOverloads
+    fun <E> listState(initialItems: Collection<E> = emptyList(), debugName: String? = null): ListState<E> {
+        return ListState(this, initialItems, debugName)
+    }
+
+    /**
+     * Creates a [SetState] instance associated with this [Extent].
+     */
+    @JvmOverloads
+    fun <E> setState(initialItems: Collection<E> = emptyList(), debugName: String? = null): SetState<E> {
+        return SetState(this, initialItems, debugName)
+    }
+
+    /**
+     * Creates a [MapState] instance associated with this [Extent].
+     */
+    @JvmOverloads
+    fun <K, V> mapState(initialEntries: Map<K, V> = emptyMap(), debugName: String? = null): MapState<K, V> {
+        return MapState(this, initialEntries, debugName)
+    }
+
+    /**
+     * Creates a [BulkDoubleState] with [size] values associated with this [Extent].
+     * With [offHeap] the values are stored outside the managed heap on platforms that support it.
      */
     @JvmOverloads
-    fun <T> state(initialState: T, debugName: String? = null): State<T> {
-        return State<T>(this, initialState, debugName)
+    fun bulkDoubleState(size: Int, initialValue: Double = 0.0, debugName: String? = null, offHeap: Boolean = false): BulkDoubleState {
+        return BulkDoubleState(this, size, initialValue, offHeap, debugName)
     }
 
     /**
@@ -0,0 +1,229 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import behaviorgraph.Event.Companion.NoSequence
+import kotlin.reflect.KClass
+
+/**
+ * Receives periodic reports from an [ExtentLeakDetector].
+ */
+fun interface ExtentLeakListener {
+    fun onReport(report: ExtentLeakReport)
+}
+
+/**
+ * Statistics for the extents of one class that are currently in the graph.
+ * @property type The extent class.
+ * @property count Number of extents of this class in the graph.
+ * @property growth Change in [count] since the previous report.
+ * @property growthStreak Number of consecutive reports in which the count, behaviors or observers of this class grew.
+ * @property oldestAge Events since the oldest extent of this class was added.
+ * @property behaviorCount Behaviors of these extents, including ones added late such as observers.
+ * @property linkCount Demands and supplies currently linked by those behaviors.
+ * @property observerCount Observations registered on the resources of these extents that have not been cancelled.
+ */
+class ExtentClassReport internal constructor(
+    val type: KClass<*>,
+    val count: Int,
+    val growth: Int,
+    val growthStreak: Int,
+    val oldestAge: Long,
+    val behaviorCount: Int,
+    val linkCount: Int,
+    val observerCount: Int
+) {
+    override fun toString(): String {
+        return "${type.simpleName}: count=$count growth=$growth streak=$growthStreak oldestAge=$oldestAge behaviors=$behaviorCount links=$linkCount observers=$observerCount"
+    }
+}
+
+/**
+ * A snapshot of the extents in a graph produced by [ExtentLeakDetector.report].
+ * @property sequence The sequence of the last completed event when the report was made.
+ * @property classes Statistics for each extent class in the graph, largest first.
+ * @property suspicious Classes that kept growing for at least [ExtentLeakDetector.growthThreshold] reports in a row.
+ * @property orphaned Extents still in the graph whose watched owner has been garbage collected.
+ */
+class ExtentLeakReport internal constructor(
+    val sequence: Long,
+    val classes: List<ExtentClassReport>,
+    val suspicious: List<ExtentClassReport>,
+    val orphaned: List<Extent<*>>
+) {
+    override fun toString(): String {
+        val rows = mutableListOf("Extent Leak Report ($sequence)")
+        if (suspicious.isNotEmpty()) {
+            rows.add(" Suspicious:")
+            suspicious.forEach { rows.add("  $it") }
+        }
+        if (orphaned.isNotEmpty()) {
+            rows.add(" Orphaned:")
+            orphaned.forEach { rows.add("  $it") }
+        }
+        rows.add(" Classes:")
+        classes.forEach { rows.add("  $it") }
+        return rows.joinToString("\n")
+    }
+}
+
+/**
+ * Opt in diagnostics for extents that are added to a graph and never removed.
+ * Behaviors stay reachable from the resources they demand, so a forgotten extent that demands a long lived resource
+ * is never garbage collected. Observers added with [State.observe] and never cancelled accumulate in the same way.
+ *
+ * Enable it with [Graph.enableLeakDetection], which also turns on [Graph.enableExtentTracking] so only extents added
+ * after that are seen. Each report groups the extents in the graph by class and compares
+ * them with the previous report, so a class that keeps growing is flagged as suspicious.
+ * Call [watch] to associate an extent with the object that owns it (a screen or a request for example).
+ * An extent still in the graph after its owner has been garbage collected is reported as orphaned.
+ *
+ * Use the detector from the graph's thread, such as inside an action or from the periodic listener.
+ */
+class ExtentLeakDetector internal constructor(
+    private val graph: Graph,
+    /**
+     * Number of events between reports sent to the listener, 0 if reports are only made by calling [report].
+     */
+    val reportEvery: Int,
+    /**
+     * Number of consecutive reports a class must grow in before it is suspicious.
+     */
+    val growthThreshold: Int,
+    private val listener: ExtentLeakListener?
+) {
+    private class ClassHistory(var count: Int, var behaviors: Int, var observers: Int, var streak: Int)
+
+    private class ClassTally(val type: KClass<*>) {
+        var count = 0
+        var behaviors = 0
+        var links = 0
+        var observers = 0
+        var oldestAdded = Long.MAX_VALUE
+    }
+
+    private val history = HashMap<KClass<*>, ClassHistory>()
+    private val owners = HashMap<Extent<*>, WeakReference>()
+    private var pruneAt = MIN_PRUNE_SIZE
+
+    internal val watchedCount: Int get() = owners.size
+    private var eventsSinceReport = 0
+
+    /**
+     * Report [extent] as orphaned if it is still in the graph after [owner] has been garbage collected.
+     * Only a weak reference to [owner] is kept. The extent is forgotten once it is removed from the graph
+     * or released to an [ExtentPool], or if its owner is collected before it is ever added.
+     *
+     * The extent itself is held strongly while it is watched, so [owner] must not be reachable from it.
+     * An owner that is the extent or its [Extent.context], or that one of its behaviors captures, is never
+     * collected and the extent is never reported.
+     */
+    fun watch(extent: Extent<*>, owner: Any) {
+        graph.bgassert(owner !== extent && owner !== extent.context) {
+            "Extent cannot be watched by an owner it keeps reachable such as itself or its context. \nExtent=$extent"
+        }
+        owners[extent] = graph.platformSpecific.makeWeakReference(owner)
+        if (owners.size >= pruneAt) {
+            prune()
+            pruneAt = maxOf(MIN_PRUNE_SIZE, owners.size * 2)
+        }
+    }
+
+    // extents are forgotten when they are removed from the graph or released to a pool
+    internal fun forget(extent: Extent<*>) {
+        owners.remove(extent)
+    }
+
+    // watched extents that were never added can't be reported once their owner is gone, so drop them
+    // even if reports are never made
+    private fun prune() {
+        val iterator = owners.entries.iterator()
+        while (iterator.hasNext()) {
+            val (extent, owner) = iterator.next()
+            if (extent.addedToGraphWhen == NoSequence && owner.get() == null) {
+                iterator.remove()
+            }
+        }
+    }
+
+    /**
+     * Watched extents that are still in the graph but whose owner has been garbage collected.
+     */
+    fun orphanedExtents(): List<Extent<*>> {
+        val orphaned = mutableListOf<Extent<*>>()
+        val iterator = owners.entries.iterator()
+        while (iterator.hasNext()) {
+            val (extent, owner) = iterator.next()
+            if (owner.get() == null) {
+                if (extent.addedToGraphWhen != NoSequence) {
+                    orphaned.add(extent)
+                } else {
+                    iterator.remove()
+                }
+            }
+        }
+        return orphaned
+    }
+
+    /**
+     * Tallies the extents in the graph by class and compares them with the previous report.
+     */
+    fun report(): ExtentLeakReport {
+        val tallies = HashMap<KClass<*>, ClassTally>()
+        graph.extentRegistry?.forEach { extent ->
+            val type = extent::class
+            val tally = tallies.getOrPut(type) { ClassTally(type) }
+            tally.count++
+            tally.behaviors += extent.behaviors.size
+            for (behavior in extent.behaviors) {
+                tally.links += (behavior.internalDemands?.size ?: 0) + (behavior.internalSupplies?.size ?: 0)
+            }
+            for (resource in extent.resources) {
+                tally.observers += resource.observerCount
+            }
+            if (extent.addedToGraphWhen < tally.oldestAdded) {
+                tally.oldestAdded = extent.addedToGraphWhen
+            }
+        }
+
+        val sequence = graph.currentEvent?.sequence ?: graph.lastEvent.sequence
+        val classes = ArrayList<ExtentClassReport>(tallies.size)
+        for (tally in tallies.values) {
+            val previous = history[tally.type]
+            val growth = tally.count - (previous?.count ?: 0)
+            val grew = previous == null || growth > 0 || tally.behaviors > previous.behaviors || tally.observers > previous.observers
+            val streak = if (grew) (previous?.streak ?: 0) + 1 else 0
+            if (previous == null) {
+                history[tally.type] = ClassHistory(tally.count, tally.behaviors, tally.observers, streak)
+            } else {
+                previous.count = tally.count
+                previous.behaviors = tally.behaviors
+                previous.observers = tally.observers
+                previous.streak = streak
+            }
+            classes.add(ExtentClassReport(tally.type, tally.count, growth, streak, sequence - tally.oldestAdded, tally.behaviors, tally.links, tally.observers))
+        }
+        // classes that have left the graph start over if they come back
+        history.keys.retainAll(tallies.keys)
+        classes.sortByDescending { it.count }
+
+        val suspicious = classes.filter { it.growthStreak >= growthThreshold }
+        return ExtentLeakReport(sequence, classes, suspicious, orphanedExtents())
+    }
+
+    internal fun eventCompleted() {
+        if (reportEvery <= 0 || listener == null) {
+            return
+        }
+        eventsSinceReport++
+        if (eventsSinceReport >= reportEvery) {
+            eventsSinceReport = 0
+            listener.onReport(report())
+        }
+    }
+
+    private companion object {
+        const val MIN_PRUNE_SIZE = 64
+    }
+}
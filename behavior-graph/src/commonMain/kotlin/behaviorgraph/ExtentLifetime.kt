@@ -1,22 +1,24 @@
 package behaviorgraph
 
+import behaviorgraph.Event.Companion.NoSequence
+
 internal class ExtentLifetime(
     extent: Extent<*>
 ){
-    var addedToGraphWhen: Long? = null
+    var addedToGraphWhen: Long = NoSequence
     val extents: MutableSet<Extent<*>> = mutableSetOf()
     var children: MutableSet<ExtentLifetime>? = null
     var parent: ExtentLifetime? = null
 
     init {
         extents.add(extent)
-        if (extent.addedToGraphWhen != null) {
+        if (extent.addedToGraphWhen != NoSequence) {
             addedToGraphWhen = extent.addedToGraphWhen
         }
     }
 
     fun unify(extent: Extent<*>) {
-        if (extent.addedToGraphWhen != null) {
+        if (extent.addedToGraphWhen != NoSequence) {
             extent.graph.bgassert(false) {
                 "Same lifetime relationship must be established before adding any extent to graph. \nExtent=$extent"
             }
@@ -71,39 +73,67 @@ internal class ExtentLifetime(
     }
 
     fun hasCompatibleLifetime(lifetime: ExtentLifetime?): Boolean {
-        if (this == lifetime) {
-            // unified
-            return true
-        } else if (lifetime != null) {
-            // parents
-            val thisParent = parent
-            if (thisParent != null) {
-                // parent is a weak reference so we get it here
-                val refParent = thisParent
-                if (refParent != null) {
-                    return refParent.hasCompatibleLifetime(lifetime)
-                }
+        if (lifetime == null) {
+            return false
+        }
+        // unified or one of our parents
+        var candidate: ExtentLifetime? = this
+        while (candidate != null) {
+            if (candidate == lifetime) {
+                return true
             }
+            candidate = candidate.parent
         }
         return false
     }
 
     fun getAllContainedExtents(): List<Extent<*>> {
         val resultExtents = mutableListOf<Extent<*>>()
-        resultExtents.addAll(extents)
-        children?.forEach { childLifetime -> resultExtents.addAll(childLifetime.getAllContainedExtents()) }
+        forEachContainedLifetime(HashSet()) { resultExtents.addAll(it.extents) }
         return resultExtents
     }
 
     fun getAllContainingExtents(): List<Extent<*>> {
         val resultExtents = mutableListOf<Extent<*>>()
-        resultExtents.addAll(extents)
-        parent?.let {
-            resultExtents.addAll(it.getAllContainingExtents())
-        }
+        forEachContainingLifetime(HashSet()) { resultExtents.addAll(it.extents) }
         return resultExtents
     }
 
+    /**
+     * Calls [block] with this lifetime and every lifetime below it that is not already in [visited].
+     * Passing the same [visited] set across calls visits each lifetime once, which keeps validating
+     * many extents from the same hierarchy linear in its size.
+     * The hierarchy is walked with an explicit stack so deep chains of children do not grow the call stack.
+     */
+    fun forEachContainedLifetime(visited: MutableSet<ExtentLifetime>, block: (ExtentLifetime) -> Unit) {
+        if (!visited.add(this)) {
+            return
+        }
+        val pending = ArrayList<ExtentLifetime>()
+        pending.add(this)
+        while (pending.isNotEmpty()) {
+            val lifetime = pending.removeAt(pending.size - 1)
+            block(lifetime)
+            lifetime.children?.forEach { child ->
+                if (visited.add(child)) {
+                    pending.add(child)
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls [block] with this lifetime and each of its parents until one is already in [visited].
+     * A visited lifetime's parents have been visited as well, so the walk can stop there.
+     */
+    fun forEachContainingLifetime(visited: MutableSet<ExtentLifetime>, block: (ExtentLifetime) -> Unit) {
+        var lifetime: ExtentLifetime? = this
+        while (lifetime != null && visited.add(lifetime)) {
+            block(lifetime)
+            lifetime = lifetime.parent
+        }
+    }
+
     fun clearExtentRelationship(removedExtent: Extent<*>) {
         // Removed extents no longer participate in their lifetime
         // Unwind those to prevent memory leaks
@@ -0,0 +1,102 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import behaviorgraph.Event.Companion.NoSequence
+import kotlin.jvm.JvmOverloads
+
+/**
+ * Creates new extents for an [ExtentPool] when none are available for reuse.
+ */
+fun interface ExtentFactory<E : Extent<*>> {
+    fun create(): E
+}
+
+/**
+ * An ExtentPool reuses extents after they are removed from the graph instead of constructing new ones.
+ * This avoids allocating resources and behaviors for workloads that add and remove many short lived extents.
+ *
+ * Call [release] once an extent has been removed from the graph and [acquire] to get one to add.
+ * A released extent is reset when it is handed out again: its resources go back to their initial values,
+ * its links and lifetime relationships are cleared, behaviors added late such as observers are dropped,
+ * and it can be added like a new extent.
+ * Establish any lifetimes again after acquiring it.
+ * An extent released during an event is not reused until that event has completed, so the graph can finish
+ * validating its removal first.
+ *
+ * Extents must not be used after they are released, and any values kept in fields of an extent subclass
+ * are not reset. The pool is not thread safe, use it from the graph's thread such as inside actions and behaviors.
+ *
+ * Example:
+ * ```kotlin
+ * val pool = ExtentPool { RequestExtent(graph) }
+ *
+ * graph.action {
+ *   val request = pool.acquire()
+ *   request.addToGraph()
+ * }
+ * ...
+ * graph.action {
+ *   request.removeFromGraph()
+ *   pool.release(request)
+ * }
+ * ```
+ * @param maxSize The most extents kept for reuse. Extents released beyond this are left to be garbage collected.
+ * @param factory Creates an extent when none can be reused.
+ */
+class ExtentPool<E : Extent<*>> @JvmOverloads constructor(
+    val maxSize: Int = 256,
+    private val factory: ExtentFactory<E>
+) {
+    private val available: ArrayDeque<E> = ArrayDeque()
+
+    /**
+     * Number of released extents waiting to be reused.
+     */
+    val size: Int get() = available.size
+
+    /**
+     * Returns a released extent reset to its initial state, or a new one from the factory if none can be reused yet.
+     */
+    fun acquire(): E {
+        // oldest first since the most recently released may still be in its removal event
+        val extent = available.firstOrNull()
+        if (extent != null && isSettled(extent)) {
+            available.removeFirst()
+            extent.pooled = false
+            extent.reset()
+            return extent
+        }
+        return factory.create()
+    }
+
+    /**
+     * Makes [extent] available to later calls to [acquire]. It must already be removed from the graph.
+     */
+    fun release(extent: E) {
+        if (extent.addedToGraphWhen != NoSequence) {
+            extent.graph.bgassert(false) {
+                "Only extents that have been removed from the graph can be released to a pool. \nExtent=$extent"
+            }
+            return
+        }
+        if (extent.pooled) {
+            extent.graph.bgassert(false) {
+                "Extent has already been released to a pool. \nExtent=$extent"
+            }
+            return
+        }
+        // released extents may never have been added, so their removal did not clear them from the detector
+        extent.graph.leakDetector?.forget(extent)
+        if (available.size < maxSize) {
+            extent.pooled = true
+            available.addLast(extent)
+        }
+    }
+
+    private fun isSettled(extent: Extent<*>): Boolean {
+        val graph = extent.graph
+        return graph.currentEvent == null || extent.removedWhen != graph.currentSequence
+    }
+}
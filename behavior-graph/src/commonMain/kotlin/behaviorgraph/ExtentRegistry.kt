@@ -0,0 +1,48 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+/**
+ * The extents in a graph while [Graph.enableExtentTracking] is on.
+ * Extents are held through weak references so one that is never removed can still be garbage collected,
+ * the slots of collected extents are reused as they are found.
+ */
+internal class ExtentRegistry(private val platformSpecific: PlatformSpecific) {
+    private val slots = ArrayList<WeakReference?>()
+    private val freeSlots = IdAllocator()
+
+    fun add(extent: Extent<*>) {
+        val slot = freeSlots.take()
+        val reference = platformSpecific.makeWeakReference(extent)
+        if (slot == slots.size) {
+            slots.add(reference)
+        } else {
+            slots[slot] = reference
+        }
+        extent.registrySlot = slot
+    }
+
+    fun remove(extent: Extent<*>) {
+        val slot = extent.registrySlot
+        // the slot may belong to an earlier registry if tracking was turned off and on again
+        if (slot >= 0 && slot < slots.size && slots[slot]?.get() === extent) {
+            slots[slot] = null
+            freeSlots.release(slot)
+        }
+        extent.registrySlot = -1
+    }
+
+    fun forEach(block: (Extent<*>) -> Unit) {
+        for (slot in 0 until slots.size) {
+            val reference = slots[slot] ?: continue
+            val extent = reference.get() as Extent<*>?
+            if (extent == null) {
+                slots[slot] = null
+                freeSlots.release(slot)
+            } else {
+                block(extent)
+            }
+        }
+    }
+}
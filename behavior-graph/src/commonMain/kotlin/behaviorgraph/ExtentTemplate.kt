@@ -0,0 +1,262 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.jvm.Volatile
+
+/**
+ * Defines the behaviors of an extent class for an [ExtentTemplate].
+ */
+fun interface TemplateDefinition<E : Extent<*>> {
+    fun define(extent: E)
+}
+
+/**
+ * An ExtentTemplate captures the behaviors of an extent class once and recreates them for each new instance
+ * without going through [BehaviorBuilder].
+ * The first extent it is applied to runs [definition] normally and the resulting links are recorded as
+ * positions in the extent's list of resources. Later extents get behaviors that share that recorded shape
+ * and the same thunks, so constructing many structurally identical extents does less work and each
+ * behavior keeps no link lists of its own.
+ *
+ * Keep the template somewhere shared such as a companion object and apply it from the extent's initializer
+ * after its resources are created.
+ *
+ * Example:
+ * ```kotlin
+ * class ItemExtent(graph: Graph) : Extent<ItemExtent>(graph) {
+ *   val count = state(0)
+ *   val doubled = state(0)
+ *
+ *   init {
+ *     template.applyTo(this)
+ *   }
+ *
+ *   companion object {
+ *     val template = ExtentTemplate<ItemExtent> { ext ->
+ *       ext.behavior()
+ *         .demands(ext.count)
+ *         .supplies(ext.doubled)
+ *         .runs { it.doubled.update(it.count.value * 2) }
+ *     }
+ *   }
+ * }
+ * ```
+ *
+ * Because thunks are shared they must reach resources through their `ctx` parameter instead of capturing
+ * the extent, its context or any of its resources and behaviors. Behaviors may only link to resources of
+ * their own extent, and dynamic links must be declared with [BehaviorBuilder.dynamicDemands] or
+ * [BehaviorBuilder.dynamicSupplies].
+ * If the definition does not meet these conditions an assertion is raised, and with assertions disabled
+ * every instance simply runs [definition] itself.
+ *
+ * Captures can only be checked on the JVM. On other platforms every instance runs [definition] unless
+ * [shareUncheckedThunks] is set, which promises that the thunks capture nothing from the extent.
+ *
+ * A template may be applied from several threads at once, such as when extents of the same class are
+ * created on different graphs. Only one extent records the shape; the others run [definition] until it is published.
+ */
+class ExtentTemplate<E : Extent<*>>(
+    private val shareUncheckedThunks: Boolean = false,
+    private val definition: TemplateDefinition<E>
+) {
+    private val platformSpecific = makePlatformSpecific()
+    // the shape is immutable once recorded so publishing it is enough for other threads to share it
+    @Volatile
+    private var shape: ExtentShape? = null
+    @Volatile
+    private var recordable = true
+    private val recordingClaims: AtomicCounter = platformSpecific.makeAtomicCounter()
+
+    /**
+     * Create the template's behaviors on [extent].
+     */
+    fun applyTo(extent: E) {
+        val localShape = shape
+        if (localShape != null) {
+            if (localShape.matches(extent)) {
+                localShape.instantiate(extent)
+                return
+            }
+            extent.graph.bgassert(false) {
+                "Extent template applied to an extent with different resources than the one it was recorded from. \nExtent=$extent"
+            }
+            // disabled asserts fall back to running the definition
+            definition.define(extent)
+        } else if (!recordable || recordingClaims.getAndIncrement() != 0) {
+            // another extent is recording or the definition can't be recorded
+            definition.define(extent)
+        } else {
+            val resourceStart = extent.resources.size
+            val behaviorStart = extent.behaviors.size
+            definition.define(extent)
+            val recorded = record(extent, resourceStart, behaviorStart)
+            if (recorded == null) {
+                recordable = false
+            } else {
+                shape = recorded
+            }
+        }
+    }
+
+    private fun record(extent: Extent<*>, resourceStart: Int, behaviorStart: Int): ExtentShape? {
+        val graph = extent.graph
+        val resources = extent.resources
+        val positions = HashMap<Resource, Int>(resources.size)
+        for (i in resources.indices) {
+            positions[resources[i]] = i
+        }
+
+        // the only resources a definition creates are the helpers for dynamic links
+        val helperNames = arrayOfNulls<String>(resources.size - resourceStart)
+        for (i in resourceStart until resources.size) {
+            val resource = resources[i]
+            if (resource::class != Resource::class) {
+                graph.bgassert(false) {
+                    "Extent templates can only define behaviors. Create resources in the extent instead. \nResource=$resource"
+                }
+                return null
+            }
+            helperNames[i - resourceStart] = resource.debugName
+        }
+
+        val behaviors = extent.behaviors
+        val behaviorShapes = ArrayList<BehaviorShape>(behaviors.size - behaviorStart)
+        for (i in behaviorStart until behaviors.size) {
+            val behavior = behaviors[i]
+            val demands = recordLinks(graph, behavior.untrackedDemands, positions) ?: return null
+            val supplies = recordLinks(graph, behavior.untrackedSupplies, positions) ?: return null
+            val thunk = behavior.thunk
+            var relinkedIndex = -1
+            val sharedFunction: Any
+            if (thunk is DynamicRelinkThunk<*>) {
+                val linkable = thunk.linkable
+                if (linkable !is GenericDynamicLinkable<*>) {
+                    graph.bgassert(false) {
+                        "Extent templates only support dynamic links from dynamicDemands or dynamicSupplies. \nBehavior=$behavior"
+                    }
+                    return null
+                }
+                relinkedIndex = behaviors.indexOf(thunk.mainBehavior) - behaviorStart
+                sharedFunction = linkable.dynamicResources
+            } else {
+                sharedFunction = thunk
+            }
+            val captured = platformSpecific.capturesGraphObject(sharedFunction, extent.context)
+            if (captured == null && !shareUncheckedThunks) {
+                // nothing tells us the thunk is safe to share
+                return null
+            }
+            if (captured == true) {
+                graph.bgassert(false) {
+                    "Extent template behaviors must reach resources through ctx instead of capturing the extent or its resources. \nBehavior=$behavior"
+                }
+                return null
+            }
+            behaviorShapes.add(BehaviorShape(demands, supplies, thunk, relinkedIndex))
+        }
+        return ExtentShape(resourceStart, behaviorStart, helperNames, behaviorShapes)
+    }
+
+    private fun recordLinks(graph: Graph, links: List<Linkable>?, positions: Map<Resource, Int>): LinkShape? {
+        if (links == null || links.isEmpty()) {
+            return LinkShape.Empty
+        }
+        val indices = IntArray(links.size)
+        var types: Array<LinkType>? = null
+        for (i in links.indices) {
+            val link = links[i]
+            val position = positions[link.resource]
+            if (position == null) {
+                graph.bgassert(false) {
+                    "Extent template behaviors can only link to resources of their own extent. \nResource=${link.resource}"
+                }
+                return null
+            }
+            indices[i] = position
+            if (link.type != LinkType.Reactive) {
+                if (types == null) {
+                    types = Array(links.size) { LinkType.Reactive }
+                }
+                types[i] = link.type
+            }
+        }
+        return LinkShape(indices, types)
+    }
+}
+
+/**
+ * Links recorded as positions in an extent's resources along with their type.
+ * [types] is null when every link is reactive.
+ */
+internal class LinkShape(val indices: IntArray, val types: Array<LinkType>?) {
+    fun linksFor(resources: List<Resource>): List<Linkable>? {
+        return if (indices.isEmpty()) null else TemplateLinks(resources, this)
+    }
+
+    companion object {
+        val Empty = LinkShape(IntArray(0), null)
+    }
+}
+
+/**
+ * Read only view of a [LinkShape] resolved against one extent's resources.
+ */
+internal class TemplateLinks(private val resources: List<Resource>, private val shape: LinkShape) : AbstractList<Linkable>() {
+    override val size: Int get() = shape.indices.size
+
+    override fun get(index: Int): Linkable {
+        val resource = resources[shape.indices[index]]
+        val type = shape.types?.get(index)
+        return if (type == null || type == LinkType.Reactive) resource else DemandLink(resource, type)
+    }
+}
+
+/**
+ * A recorded behavior. Relinking behaviors keep the position of the behavior they relink
+ * in [relinkedIndex], otherwise it is -1 and [thunk] is shared as is.
+ */
+internal class BehaviorShape(
+    val demands: LinkShape,
+    val supplies: LinkShape,
+    val thunk: ExtentThunk<*>,
+    val relinkedIndex: Int
+)
+
+/**
+ * Everything recorded for a template. It is not changed after it is recorded.
+ */
+internal class ExtentShape(
+    private val resourceStart: Int,
+    private val behaviorStart: Int,
+    private val helperNames: Array<String?>,
+    private val behaviors: List<BehaviorShape>
+) {
+    fun matches(extent: Extent<*>): Boolean {
+        return extent.resources.size == resourceStart && extent.behaviors.size == behaviorStart
+    }
+
+    fun instantiate(extent: Extent<*>) {
+        @Suppress("UNCHECKED_CAST")
+        val typedExtent = extent as Extent<Any>
+        for (name in helperNames) {
+            Resource(extent, name)
+        }
+        val resources = typedExtent.resources
+        val created = arrayOfNulls<Behavior<Any>>(behaviors.size)
+        for (i in behaviors.indices) {
+            val shape = behaviors[i]
+            @Suppress("UNCHECKED_CAST")
+            val thunk = if (shape.relinkedIndex < 0) {
+                shape.thunk as ExtentThunk<Any>
+            } else {
+                val recordedThunk = shape.thunk as DynamicRelinkThunk<Any>
+                DynamicRelinkThunk(created[shape.relinkedIndex]!!, recordedThunk.linkable, recordedThunk.relinksDemands)
+            }
+            val behavior = Behavior(typedExtent, shape.demands.linksFor(resources), shape.supplies.linksFor(resources), thunk)
+            typedExtent.addBehavior(behavior)
+            created[i] = behavior
+        }
+    }
+}
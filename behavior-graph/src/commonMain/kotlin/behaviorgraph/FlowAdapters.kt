@@ -0,0 +1,60 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.launch
+
+/**
+ * Collects this flow and updates [state] with its values until the flow completes.
+ * Values that arrive while an earlier action is still running are combined and only the latest is applied,
+ * so a fast flow creates one action per batch instead of one per value.
+ */
+suspend fun <T> Flow<T>.collectInto(state: State<T>) {
+    collectBatches(state.graph, "Collect Into ${state.debugName ?: "State"}") { batch ->
+        state.update(batch[batch.size - 1])
+    }
+}
+
+/**
+ * Collects this flow and appends its values to [list] until the flow completes.
+ * Values that arrive while an earlier action is still running are appended together in the next action,
+ * so a fast flow creates one action per batch instead of one per value.
+ */
+suspend fun <T> Flow<T>.collectInto(list: ListState<T>) {
+    collectBatches(list.graph, "Collect Into ${list.debugName ?: "List"}") { batch ->
+        list.addAll(batch)
+    }
+}
+
+private suspend fun <T> Flow<T>.collectBatches(graph: Graph, debugName: String, apply: (List<T>) -> Unit) {
+    coroutineScope {
+        val pending = Channel<T>(Channel.UNLIMITED)
+        launch {
+            try {
+                collect { pending.send(it) }
+            } finally {
+                pending.close()
+            }
+        }
+        while (true) {
+            val first = pending.receiveCatching()
+            if (first.isClosed) {
+                break
+            }
+            val batch = arrayListOf(first.getOrThrow())
+            while (true) {
+                val next = pending.tryReceive()
+                if (!next.isSuccess) {
+                    break
+                }
+                batch.add(next.getOrThrow())
+            }
+            // waiting for the action lets values build up into the next batch
+            graph.action(debugName) { apply(batch) }.join()
+        }
+    }
+}
@@ -4,10 +4,12 @@
 package behaviorgraph
 
 import behaviorgraph.Event.Companion.InitialEvent
+import behaviorgraph.Event.Companion.NoSequence
 import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.sync.Mutex
 import kotlin.math.max
+import kotlin.reflect.KClass
 import kotlin.jvm.JvmOverloads
 
 expect internal fun makePlatformSpecific(): PlatformSpecific
@@ -25,6 +27,15 @@ class Graph @JvmOverloads constructor(
      * The current event if one is currently running.
      */
     var currentEvent: Event? = null
+        private set(value) {
+            field = value
+            currentSequence = value?.sequence ?: 0
+        }
+
+    /**
+     * Sequence of the current event or 0 if there is none, kept as a primitive so hot paths don't box it.
+     */
+    internal var currentSequence: Long = 0
         private set
 
     /**
@@ -39,13 +50,14 @@ class Graph @JvmOverloads constructor(
      */
     var currentBehavior: Behavior<*>? = null
         private set
-    internal var untrackedBehaviors: MutableList<Behavior<*>> = mutableListOf()
-    internal var modifiedDemandBehaviors: MutableList<Behavior<*>> = mutableListOf()
-    internal var modifiedSupplyBehaviors: MutableList<Behavior<*>> = mutableListOf()
-    private var updatedTransients: MutableList<Transient> = mutableListOf()
+    private val behaviorsToRun: MutableList<Behavior<Any>> = mutableListOf()
+    internal var untrackedBehaviors: ArrayList<Behavior<*>> = ArrayList()
+    internal var modifiedDemandBehaviors: ArrayList<Behavior<*>> = ArrayList()
+    internal var modifiedSupplyBehaviors: ArrayList<Behavior<*>> = ArrayList()
     private var needsOrdering: MutableList<Behavior<*>> = mutableListOf()
+    private val payloadHolders: ArrayList<Resource> = ArrayList()
     internal var eventLoopState: EventLoopState? = null
-    internal var extentsAdded: MutableList<Extent<*>> = mutableListOf()
+    internal var extentsAdded: ArrayList<Extent<*>> = ArrayList()
     internal var extentsRemoved: MutableList<Extent<*>> = mutableListOf()
     internal val processingChangesOnCurrentThread: Boolean get() = platformSpecific.runningOnCurrentThread(eventLoopState) && eventLoopState?.phase?.processingChanges == true
     var defaultSideEffectDispatcher: CoroutineDispatcher? = Dispatchers.Unconfined
@@ -71,12 +83,105 @@ class Graph @JvmOverloads constructor(
     var validateLifetimes: Boolean = true
 
     /**
-     * System uses reflection to automatically name resources as extents are added to the graph.
+     * System uses reflection (or a registered [ResourceNamer]) to automatically name resources as extents are added to the graph.
      * This makes debugging significantly easier; however it does come with some small cost.
      * You may disable this here.
      */
     var automaticResourceNaming: Boolean = true
 
+    // only changed and read while processing an event, in the order namers were registered
+    private val resourceNamers: ArrayList<Pair<KClass<*>, ResourceNamer<*>>> = ArrayList()
+    // the namer found for each class named so far, null if none applies
+    private val namersByClass: HashMap<KClass<*>, ResourceNamer<*>?> = HashMap()
+
+    /**
+     * Use [namer] instead of reflection to name the resources of instances of [type], including its subclasses,
+     * when they are added. [type] is the extent class, or the context object's class for extents created with a context.
+     * If several registered types match, the one registered last is used, so register base classes first.
+     * It can be called from any thread. Outside of an event the namer is registered by an action, so it applies
+     * to extents added by actions that come after it.
+     */
+    fun <T : Any> registerResourceNamer(type: KClass<T>, namer: ResourceNamer<T>) {
+        if (processingChangesOnCurrentThread) {
+            addResourceNamer(type, namer)
+        } else {
+            action("registerResourceNamer") { addResourceNamer(type, namer) }
+        }
+    }
+
+    private fun addResourceNamer(type: KClass<*>, namer: ResourceNamer<*>) {
+        resourceNamers.add(Pair(type, namer))
+        namersByClass.clear()
+    }
+
+    internal fun nameResources(focus: Any) {
+        if (resourceNamers.isNotEmpty()) {
+            val type = focus::class
+            val namer = if (namersByClass.containsKey(type)) namersByClass[type] else findResourceNamer(focus).also { namersByClass[type] = it }
+            if (namer != null) {
+                @Suppress("UNCHECKED_CAST")
+                (namer as ResourceNamer<Any>).nameResources(focus)
+                return
+            }
+        }
+        platformSpecific.nameResources(focus)
+    }
+
+    private fun findResourceNamer(focus: Any): ResourceNamer<*>? {
+        for (i in resourceNamers.indices.reversed()) {
+            val (type, namer) = resourceNamers[i]
+            if (type.isInstance(focus)) {
+                return namer
+            }
+        }
+        return null
+    }
+
+    /**
+     * The detector created by [enableLeakDetection], or null if leak detection is off.
+     */
+    var leakDetector: ExtentLeakDetector? = null
+        private set
+
+    /**
+     * Turns on diagnostics for extents that are never removed from the graph. See [ExtentLeakDetector].
+     * @param reportEvery Send a report to [listener] after this many events. 0 turns off periodic reports.
+     * @param growthThreshold Consecutive reports of growth before an extent class is marked suspicious.
+     */
+    @JvmOverloads
+    fun enableLeakDetection(reportEvery: Int = 0, growthThreshold: Int = 3, listener: ExtentLeakListener? = null): ExtentLeakDetector {
+        enableExtentTracking()
+        val detector = ExtentLeakDetector(this, reportEvery, growthThreshold, listener)
+        leakDetector = detector
+        return detector
+    }
+
+    /**
+     * Turns off leak detection.
+     */
+    fun disableLeakDetection() {
+        leakDetector = null
+    }
+
+    /**
+     * Keeps track of the extents added from now on so they can be visited by [footprint], [exportAdjacency]
+     * and the [ExtentLeakDetector]. Only weak references are kept, so extents that are never removed can still
+     * be garbage collected. [enableLeakDetection] turns this on.
+     * Call this from inside an action or while the graph is idle.
+     */
+    fun enableExtentTracking() {
+        if (extentRegistry == null) {
+            extentRegistry = ExtentRegistry(platformSpecific)
+        }
+    }
+
+    /**
+     * Stops keeping track of extents. Reports made afterwards will not include any extents.
+     */
+    fun disableExtentTracking() {
+        extentRegistry = null
+    }
+
     /**
      * The current action may update one or more resources. Inspecting this list lets us
      * identify which action initiated the current event.
@@ -96,6 +201,21 @@ class Graph @JvmOverloads constructor(
     internal val platformSpecific: PlatformSpecific = makePlatformSpecific()
     val assertsEnabled: Boolean = true
 
+    // Nodes get ids while they are in the graph, ids of removed nodes are reused.
+    private val behaviorIds = IdAllocator()
+    private val resourceIds = IdAllocator()
+    internal var extentRegistry: ExtentRegistry? = null
+        private set
+
+    // Per node bookkeeping is kept in arrays indexed by Behavior.id and Resource.id.
+    // Every event gets a new epoch, including ones that fail and whose sequence number
+    // is reused by the next event, so stamps from earlier events never match.
+    private var eventEpoch: Long = 0
+    private var activatedEpochs: LongArray = LongArray(0)
+    private var demandStamps: IntArray = IntArray(0)
+    private var behaviorRunStamp: Int = 0
+    private var demandStampsRun: Int = 0
+
     init {
         lastEvent = InitialEvent
     }
@@ -143,29 +263,62 @@ class Graph @JvmOverloads constructor(
                 { "Action cannot be created directly inside another action or behavior. Consider wrapping it in a side effect block." })
         }
         if (processingMutex.tryLock()) {
-            try {
+            CoroutineScope(Dispatchers.Unconfined).launch {
+                runActionsHoldingGraph(action)
+            }
+            actionThrowable?.let { throw it }
+        } else {
+            platformSpecific.safeAddToActionQueue(action, actionQueue, actionQueueMutex)
+            // the thread holding the graph may have let go of it after it last checked the queue
+            if (processingMutex.tryLock()) {
                 CoroutineScope(Dispatchers.Unconfined).launch {
-                    var nextAction: RunnableAction? = action
-                    while(true) {
-                        if (nextAction == null) {
-                            break
-                        }
-                        nextAction?.let {
-                            internalRunAction(it)
-                        }
-                        actionQueueMutex.lock()
-                        nextAction = actionQueue.removeFirstOrNull()
-                        actionQueueMutex.unlock()
-                    }
+                    runActionsHoldingGraph(null)
+                }
+            }
+        }
+        return action.job
+    }
+
+    /**
+     * Runs [first] and then every queued action, including ones queued by other callers, and lets go of the graph
+     * once the queue is empty. The caller must already hold [processingMutex].
+     * The graph stays held while this suspends waiting for the queue, so only one thread runs events at a time.
+     */
+    private suspend fun runActionsHoldingGraph(first: RunnableAction?) {
+        var nextAction = first ?: dequeueAction()
+        while (true) {
+            try {
+                while (nextAction != null) {
+                    internalRunAction(nextAction)
+                    nextAction = dequeueAction()
                 }
-                actionThrowable?.let { throw it }
             } finally {
                 processingMutex.unlock()
             }
-        } else {
-            platformSpecific.safeAddToActionQueue(action, actionQueue, actionQueueMutex)
+            // an action queued after the last check but before the unlock would otherwise wait for the next action
+            if (!hasQueuedActions() || !processingMutex.tryLock()) {
+                break
+            }
+            nextAction = dequeueAction()
+        }
+    }
+
+    private suspend fun dequeueAction(): RunnableAction? {
+        actionQueueMutex.lock()
+        try {
+            return actionQueue.removeFirstOrNull()
+        } finally {
+            actionQueueMutex.unlock()
+        }
+    }
+
+    private suspend fun hasQueuedActions(): Boolean {
+        actionQueueMutex.lock()
+        try {
+            return actionQueue.isNotEmpty()
+        } finally {
+            actionQueueMutex.unlock()
         }
-        return action.job
     }
 
     private suspend fun internalRunAction(action: RunnableAction) {
@@ -174,6 +327,7 @@ class Graph @JvmOverloads constructor(
                 this.lastEvent.sequence + 1, dateProvider?.now() ?: 0
             )
             this.currentEvent = newEvent
+            eventEpoch++
             val newState = EventLoopState(action)
             platformSpecific.setCurrentThread(newState)
             newState.phase = EventLoopPhase.Action
@@ -189,10 +343,10 @@ class Graph @JvmOverloads constructor(
                     needsOrdering.size > 0
                 ) {
                     eventLoopState?.phase = EventLoopPhase.Updates
-                    val sequence: Long = this.currentEvent?.sequence ?: 0
+                    val sequence: Long = currentSequence
                     addUntrackedBehaviors()
                     addUntrackedSupplies()
-                    addUntrackedDemands(sequence)
+                    addUntrackedDemands()
                     orderBehaviors()
                     runNextBehavior(sequence)
 
@@ -230,11 +384,12 @@ class Graph @JvmOverloads constructor(
 
                 currentEvent?.let { aCurrentEvent ->
                     val eventAction = eventLoopState?.action
-                    clearTransients()
+                    releasePayloads()
                     lastEvent = aCurrentEvent
                     currentEvent = null
                     eventLoopState = null
                     currentBehavior = null
+                    leakDetector?.eventCompleted()
                     eventAction?.job?.complete()
                 }
                 break
@@ -248,7 +403,7 @@ class Graph @JvmOverloads constructor(
             effectQueue.clear()
             currentBehavior = null
             activatedBehaviors.clear()
-            clearTransients()
+            releasePayloads()
             modifiedDemandBehaviors.clear()
             modifiedSupplyBehaviors.clear()
             untrackedBehaviors.clear()
@@ -257,6 +412,27 @@ class Graph @JvmOverloads constructor(
         }
     }
 
+    /**
+     * Calls [Resource.releasePayload] on [resource] once the current event ends, so values that only matter
+     * during the event aren't kept reachable afterwards. Call it at most once per event for each resource.
+     *
+     * Whether a resource updated during the current event is always derived by comparing the event it stores
+     * with [currentEvent], this list is not needed for that. It exists only so what a resource holds for one
+     * event is let go of when it ends: moment values, the prior value of a [State] and the change logs of a
+     * [CollectionState] or [BulkDoubleState]. Primitive states such as [IntState] hold nothing that needs releasing
+     * and keep their prior value until their next update.
+     */
+    internal fun releaseAtEndOfEvent(resource: Resource) {
+        payloadHolders.add(resource)
+    }
+
+    private fun releasePayloads() {
+        for (i in 0 until payloadHolders.size) {
+            payloadHolders[i].releasePayload()
+        }
+        payloadHolders.clear()
+    }
+
     private fun collectLateAddBehaviors() {
         while (true) {
             val lateBehavior: Behavior<*>? = addBehaviorChannel.tryReceive().getOrNull()
@@ -264,7 +440,8 @@ class Graph @JvmOverloads constructor(
                 break
             } else {
                 // add as untracked behavior only if the extent has already been added to graph
-                if (lateBehavior.extent.addedToGraphWhen != null) {
+                if (lateBehavior.extent.addedToGraphWhen != NoSequence) {
+                    assignId(lateBehavior)
                     untrackedBehaviors.add(lateBehavior)
                 }
             }
@@ -277,18 +454,20 @@ class Graph @JvmOverloads constructor(
             if (behaviorToRemove == null) {
                 break
             } else {
-                removeBehavior(behaviorToRemove, this.currentEvent?.sequence ?: 0)
+                removeBehavior(behaviorToRemove, currentSequence)
             }
         }
     }
 
     private fun validateAddedExtents() {
         // ensure extents with same lifetime also got added
+        // each lifetime is checked once no matter how many of its extents were added
         val needAdding: MutableSet<Extent<*>> = mutableSetOf()
+        val visited = HashSet<ExtentLifetime>()
         for (added in extentsAdded) {
-            if (added.lifetime != null) {
-                for (ext in added.lifetime?.getAllContainingExtents() ?: listOf()) {
-                    if (ext.addedToGraphWhen == null) {
+            added.lifetime?.forEachContainingLifetime(visited) { lifetime ->
+                for (ext in lifetime.extents) {
+                    if (ext.addedToGraphWhen == NoSequence) {
                         needAdding.add(ext)
                     }
                 }
@@ -301,11 +480,13 @@ class Graph @JvmOverloads constructor(
 
     private fun validateRemovedExtents() {
         // validate extents with contained lifetimes are also removed
+        // each lifetime is checked once no matter how many of its extents were removed
         val needRemoving: MutableSet<Extent<*>> = mutableSetOf()
+        val visited = HashSet<ExtentLifetime>()
         for (removed in extentsRemoved) {
-            if (removed.lifetime != null) {
-                for (ext in removed.lifetime?.getAllContainedExtents() ?: listOf()) {
-                    if (ext.addedToGraphWhen != null) {
+            removed.lifetime?.forEachContainedLifetime(visited) { lifetime ->
+                for (ext in lifetime.extents) {
+                    if (ext.addedToGraphWhen != NoSequence) {
                         needRemoving.add(ext)
                     }
                 }
@@ -318,78 +499,159 @@ class Graph @JvmOverloads constructor(
         // validate removed resources are not still linked to remaining behaviors
         for (removed in extentsRemoved) {
             for (resource in removed.resources) {
-                for (demandedBy in resource.subsequents) {
-                    if (demandedBy.extent.addedToGraphWhen != null) {
-                        bgassert(false) {
-                            "Remaining behaviors should remove dynamicDemands to removed resources. \nRemaining Behavior=$demandedBy \nRemoved Resource=$resource"
-                        }
-                    }
-                }
-                if (resource.suppliedBy != null && resource.suppliedBy?.extent?.addedToGraphWhen != null) {
-                    bgassert(false) {
-                        "Remaining behaviors should remove dynamicSupplies to removed resources. \nRemaining Behavior=${resource.suppliedBy} \nRemoved resource=$resource"
-                    }
-                }
+                validateRemovedResource(resource)
+                resource.forEachDependentResource { validateRemovedResource(it) }
             }
         }
     }
 
-    private fun clearTransients() {
-        updatedTransients.forEach {
-            it.clear()
+    private fun validateRemovedResource(resource: Resource) {
+        for (demandedBy in resource.subsequents) {
+            if (demandedBy.extent.addedToGraphWhen != NoSequence) {
+                bgassert(false) {
+                    "Remaining behaviors should remove dynamicDemands to removed resources. \nRemaining Behavior=$demandedBy \nRemoved Resource=$resource"
+                }
+            }
+        }
+        val supplier = resource.suppliedBy
+        if (supplier != null && supplier.extent.addedToGraphWhen != NoSequence) {
+            bgassert(false) {
+                "Remaining behaviors should remove dynamicSupplies to removed resources. \nRemaining Behavior=${resource.suppliedBy} \nRemoved resource=$resource"
+            }
         }
-        updatedTransients.clear()
-    }
-
-    internal fun trackTransient(resource: Transient) {
-        updatedTransients.add(resource)
     }
 
     internal fun resourceTouched(resource: Resource) {
-        this.currentEvent?.let { aCurrentEvent ->
+        if (this.currentEvent != null) {
             if (eventLoopState != null && eventLoopState?.phase == EventLoopPhase.Action) {
                 eventLoopState?.actionUpdates?.add(resource)
             }
-            for (subsequent in resource.subsequents) {
-                val isOrderingDemand =
-                    subsequent.orderingDemands != null && subsequent.orderingDemands?.contains(resource) ?: false
+            val subsequents = resource.subsequents
+            for (i in 0 until subsequents.size) {
+                val subsequent = subsequents[i]
+                val isOrderingDemand = subsequent.orderingDemands?.contains(resource) ?: false
                 if (!isOrderingDemand) {
-                    activateBehavior(subsequent, aCurrentEvent.sequence)
+                    activateBehavior(subsequent)
                 }
             }
         }
     }
 
-    private fun activateBehavior(behavior: Behavior<*>, sequence: Long) {
-        if (behavior.enqueuedWhen == null || (behavior.enqueuedWhen ?: 0) < sequence) {
-            behavior.enqueuedWhen = sequence
+    private fun activateBehavior(behavior: Behavior<*>) {
+        val id = behavior.id
+        if (id < 0) {
+            // removed earlier in this event
+            return
+        }
+        if (id >= activatedEpochs.size) {
+            activatedEpochs = activatedEpochs.copyOf(grownCapacity(activatedEpochs.size, id))
+        }
+        if (activatedEpochs[id] != eventEpoch) {
+            activatedEpochs[id] = eventEpoch
             activatedBehaviors.add(behavior)
         }
     }
 
+    /**
+     * Does the currently running behavior demand this resource.
+     * The first check during a behavior run stamps each of its demands
+     * so further checks in the same run are a single array lookup.
+     */
+    internal fun currentBehaviorDemands(resource: Resource): Boolean {
+        val demands = currentBehavior?.internalDemands ?: return false
+        if (demandStampsRun != behaviorRunStamp) {
+            for (i in 0 until demands.size) {
+                val id = demands[i].id
+                if (id < 0) {
+                    continue
+                }
+                if (id >= demandStamps.size) {
+                    demandStamps = demandStamps.copyOf(grownCapacity(demandStamps.size, id))
+                }
+                demandStamps[id] = behaviorRunStamp
+            }
+            demandStampsRun = behaviorRunStamp
+        }
+        val id = resource.id
+        return id >= 0 && id < demandStamps.size && demandStamps[id] == behaviorRunStamp
+    }
+
+    private fun grownCapacity(currentSize: Int, id: Int): Int {
+        return max(id + 1, max(16, currentSize * 2))
+    }
+
+    // A reused id may still carry a stamp from the node that had it before, so it is cleared.
+    internal fun assignId(behavior: Behavior<*>) {
+        if (behavior.id < 0) {
+            val id = behaviorIds.take()
+            if (id < activatedEpochs.size) {
+                activatedEpochs[id] = 0
+            }
+            behavior.id = id
+        }
+    }
+
+    internal fun assignId(resource: Resource) {
+        if (resource.id < 0) {
+            val id = resourceIds.take()
+            if (id < demandStamps.size) {
+                demandStamps[id] = 0
+            }
+            resource.id = id
+        }
+    }
+
+    internal fun releaseId(resource: Resource) {
+        if (resource.id >= 0) {
+            resourceIds.release(resource.id)
+            resource.id = -1
+        }
+    }
+
+    // kept so adding and removing extents don't allocate a lambda per resource
+    private val assignDependentId: (Resource) -> Unit = { assignId(it) }
+    private val releaseDependentId: (Resource) -> Unit = { releaseId(it) }
+
+    internal val behaviorIdCapacity: Int get() = behaviorIds.capacity
+
+    internal val resourceIdCapacity: Int get() = resourceIds.capacity
+
     private fun runNextBehavior(sequence: Long) {
         // We run all with the same order so we don't have to resort multiple times if same ordered
         // behaviors all change the graph, which can happen when we update switching behaviors
         // which cause multiple relinking behaviors to run. We only want one big resort at that point.
-        val behaviorsToRun = mutableListOf<Behavior<Any>>()
         // It's necessary to collect the behaviors first before running any.
         // This is because running any of them may result in new behaviors getting added.
         // And they may have the same order (always 0?) as the ones we are running, but they
         // haven't been through the ordering process.
         // (An alternative might be to just queue up adding extents until the next part of the event loop)
-        activatedBehaviors.peek()?.order?.let { order ->
-            while (activatedBehaviors.size > 0 && activatedBehaviors.peek()?.order == order) {
-                val behavior: Behavior<Any> = activatedBehaviors.pop() as Behavior<Any>
-                behaviorsToRun.add(behavior)
+        // (The list is reused between calls and orders are compared as primitives so activations don't allocate)
+        val first = activatedBehaviors.peek() ?: return
+        val order = first.order
+        behaviorsToRun.clear()
+        while (true) {
+            val next = activatedBehaviors.peek() ?: break
+            if (next.order != order) {
+                break
             }
+            activatedBehaviors.pop()
+            behaviorsToRun.add(next as Behavior<Any>)
         }
-        for (behavior in behaviorsToRun) {
+        for (i in 0 until behaviorsToRun.size) {
+            val behavior = behaviorsToRun[i]
             if (behavior.removedWhen != sequence) {
+                if (behaviorRunStamp == Int.MAX_VALUE) {
+                    demandStamps.fill(0)
+                    behaviorRunStamp = 0
+                    demandStampsRun = 0
+                }
+                behaviorRunStamp++
                 currentBehavior = behavior
                 behavior.thunk.invoke(behavior.extent.context ?: behavior.extent)
                 currentBehavior = null
             }
         }
+        behaviorsToRun.clear()
     }
 
     /**
@@ -419,6 +681,8 @@ class Graph @JvmOverloads constructor(
     }
 
     private fun addUntrackedBehaviors() {
+        modifiedDemandBehaviors.ensureCapacity(modifiedDemandBehaviors.size + untrackedBehaviors.size)
+        modifiedSupplyBehaviors.ensureCapacity(modifiedSupplyBehaviors.size + untrackedBehaviors.size)
         for (behavior in untrackedBehaviors) {
             modifiedDemandBehaviors.add(behavior)
             modifiedSupplyBehaviors.add(behavior)
@@ -438,17 +702,17 @@ class Graph @JvmOverloads constructor(
                 }
             }
 
-            val allUntrackedSupplies: MutableSet<Linkable> = mutableSetOf()
-            behavior.untrackedSupplies?.let {
-                allUntrackedSupplies.addAll(it)
-            }
-            behavior.untrackedDynamicSupplies?.let {
-                allUntrackedSupplies.addAll(it)
-            }
-            behavior.supplies?.forEach { it.suppliedBy = null }
-
-            behavior.supplies = allUntrackedSupplies.map { it.resource }.toSet()
-            behavior.supplies?.forEach { newSupply: Resource ->
+            behavior.internalSupplies?.forEach { it.suppliedBy = null }
+
+            // the compact set removes duplicates so links are collected straight into it
+            val staticSupplies = behavior.untrackedSupplies
+            val dynamicSupplies = behavior.untrackedDynamicSupplies
+            val newSupplies = CompactSet<Resource>((staticSupplies?.size ?: 0) + (dynamicSupplies?.size ?: 0))
+            collectLinks(staticSupplies, newSupplies, null)
+            collectLinks(dynamicSupplies, newSupplies, null)
+            behavior.internalSupplies = newSupplies
+            for (i in 0 until newSupplies.size) {
+                val newSupply = newSupplies[i]
                 if (newSupply.suppliedBy != null && newSupply.suppliedBy !== behavior) {
                     bgassert(false) {
                         "Resource cannot be supplied by more than one behavior. Supplied Resource=$newSupply \nSupplying Behavior=$newSupply.suppliedBy \nAdditional Behavior=$behavior"
@@ -469,7 +733,28 @@ class Graph @JvmOverloads constructor(
         this.modifiedSupplyBehaviors.clear()
     }
 
-    private fun addUntrackedDemands(sequence: Long) {
+    /**
+     * Adds the resources of [links] to [resources]. Resources linked with [LinkType.Order] are also added to
+     * [ordering], which is created when first needed and returned.
+     */
+    private fun collectLinks(links: List<Linkable>?, resources: CompactSet<Resource>, ordering: CompactSet<Resource>?): CompactSet<Resource>? {
+        var localOrdering = ordering
+        if (links != null) {
+            for (i in links.indices) {
+                val link = links[i]
+                resources.add(link.resource)
+                if (link.type == LinkType.Order) {
+                    if (localOrdering == null) {
+                        localOrdering = CompactSet()
+                    }
+                    localOrdering.add(link.resource)
+                }
+            }
+        }
+        return localOrdering
+    }
+
+    private fun addUntrackedDemands() {
         modifiedDemandBehaviors.forEach { behavior ->
             if (validateLifetimes) {
                 behavior.untrackedDemands?.forEach { demand ->
@@ -482,72 +767,56 @@ class Graph @JvmOverloads constructor(
                 }
             }
 
-            val allUntrackedDemands: MutableSet<Linkable> = mutableSetOf()
-            behavior.untrackedDemands?.let {
-                allUntrackedDemands.addAll(it)
-            }
-            behavior.untrackedDynamicDemands?.let {
-                allUntrackedDemands.addAll(it)
+            val staticDemands = behavior.untrackedDemands
+            val dynamicDemands = behavior.untrackedDynamicDemands
+            val linkCount = (staticDemands?.size ?: 0) + (dynamicDemands?.size ?: 0)
+            var newDemands: CompactSet<Resource>? = null
+            var orderingDemands: CompactSet<Resource>? = null
+            if (linkCount > 0) {
+                newDemands = CompactSet(linkCount)
+                orderingDemands = collectLinks(staticDemands, newDemands, orderingDemands)
+                orderingDemands = collectLinks(dynamicDemands, newDemands, orderingDemands)
             }
 
-            var removedDemands: MutableList<Resource>? = null
-            behavior.demands?.forEach { demand ->
-                if (!allUntrackedDemands.contains(demand)) {
-                    if (removedDemands == null) {
-                        removedDemands = mutableListOf()
+            // demands that are no longer linked stop activating this behavior
+            val oldDemands = behavior.internalDemands
+            if (oldDemands != null) {
+                for (i in 0 until oldDemands.size) {
+                    val demand = oldDemands[i]
+                    if (newDemands == null || !newDemands.contains(demand)) {
+                        demand.subsequents.remove(behavior)
+                        demand.demandRemoved()
                     }
-                    removedDemands?.add(demand)
                 }
             }
 
-            var addedDemands: MutableList<Resource>? = null
-            for (link in allUntrackedDemands) {
-                val untrackedDemand = link.resource
-                if (untrackedDemand.extent.addedToGraphWhen == null) {
-                    bgassert(false) {
-                        "Cannot demand a resource that hasn't been added to the graph. Demanding behavior=$behavior \nDemand=$untrackedDemand"
-                    }
-                }
-                if (behavior.demands == null || !(behavior.demands?.contains(untrackedDemand) ?: false)) {
-                    if (addedDemands == null) {
-                        addedDemands = mutableListOf()
-                    }
-                    addedDemands.add(untrackedDemand)
-                }
-            }
             var needsRunning = false
-
-            removedDemands?.forEach { it.subsequents.remove(behavior) }
             var orderBehavior = behavior.orderingState != OrderingState.Ordered
-
-            addedDemands?.forEach { demand ->
-                demand.subsequents.add(behavior)
-                if (demand.internalJustUpdated) {
-                    needsRunning = true
-                }
-                if (!orderBehavior) {
-                    val prior = demand.suppliedBy
-                    if (prior != null && prior.orderingState == OrderingState.Ordered && prior.order >= behavior.order) {
-                        orderBehavior = true
+            if (newDemands != null) {
+                for (i in 0 until newDemands.size) {
+                    val demand = newDemands[i]
+                    if (demand.extent.addedToGraphWhen == NoSequence) {
+                        bgassert(false) {
+                            "Cannot demand a resource that hasn't been added to the graph. Demanding behavior=$behavior \nDemand=$demand"
+                        }
                     }
-                }
-            }
-
-            var newDemands: MutableSet<Resource>? = null
-            var orderingDemands: MutableSet<Resource>? = null
-            allUntrackedDemands.forEach { link ->
-                if (newDemands == null) {
-                    newDemands = mutableSetOf()
-                }
-                newDemands?.add(link.resource)
-                if (link.type == LinkType.Order) {
-                    if (orderingDemands == null) {
-                        orderingDemands = mutableSetOf()
+                    if (oldDemands != null && oldDemands.contains(demand)) {
+                        continue
+                    }
+                    demand.subsequents.add(behavior)
+                    demand.demandAdded()
+                    if (demand.internalJustUpdated) {
+                        needsRunning = true
+                    }
+                    if (!orderBehavior) {
+                        val prior = demand.suppliedBy
+                        if (prior != null && prior.orderingState == OrderingState.Ordered && prior.order >= behavior.order) {
+                            orderBehavior = true
+                        }
                     }
-                    orderingDemands?.add(link.resource)
                 }
             }
-            behavior.demands = newDemands
+            behavior.internalDemands = newDemands
             behavior.orderingDemands = orderingDemands
 
             if (orderBehavior) {
@@ -557,7 +826,7 @@ class Graph @JvmOverloads constructor(
                 }
             }
             if (needsRunning) {
-                this.activateBehavior(behavior, sequence)
+                this.activateBehavior(behavior)
             }
         }
         this.modifiedDemandBehaviors.clear()
@@ -580,12 +849,11 @@ class Graph @JvmOverloads constructor(
             if (behavior.orderingState == OrderingState.NeedsOrdering) {
                 behavior.orderingState = OrderingState.Clearing
                 localNeedsOrdering.add(behavior)
-                behavior.supplies?.forEach { supply ->
-                    supply.subsequents.forEach { subsequent ->
-                        if (subsequent.orderingState == OrderingState.Ordered) {
-                            subsequent.orderingState = OrderingState.NeedsOrdering
-                            needsOrdering.add(subsequent)
-                        }
+                behavior.internalSupplies?.let { supplies ->
+                    for (i in 0 until supplies.size) {
+                        val supply = supplies[i]
+                        markForOrdering(supply.subsequents)
+                        supply.forEachDependentResource { markForOrdering(it.subsequents) }
                     }
                 }
             }
@@ -605,6 +873,16 @@ class Graph @JvmOverloads constructor(
         }
     }
 
+    private fun markForOrdering(subsequents: CompactSet<Behavior<*>>) {
+        for (j in 0 until subsequents.size) {
+            val subsequent = subsequents[j]
+            if (subsequent.orderingState == OrderingState.Ordered) {
+                subsequent.orderingState = OrderingState.NeedsOrdering
+                needsOrdering.add(subsequent)
+            }
+        }
+    }
+
     private fun sortDFS(behavior: Behavior<*>, needsReheap: MutableList<Boolean>) {
         if (behavior.orderingState == OrderingState.Ordering) {
             bgassert(false) {
@@ -619,12 +897,14 @@ class Graph @JvmOverloads constructor(
         if (behavior.orderingState == OrderingState.Clearing) {
             behavior.orderingState = OrderingState.Ordering
             var order = 0L
-            behavior.demands?.forEach { demand ->
-                demand.suppliedBy?.let { prior ->
-                    if (prior.orderingState != OrderingState.Ordered) {
-                        sortDFS(prior, needsReheap)
+            behavior.internalDemands?.let { demands ->
+                for (i in 0 until demands.size) {
+                    demands[i].suppliedBy?.let { prior ->
+                        if (prior.orderingState != OrderingState.Ordered) {
+                            sortDFS(prior, needsReheap)
+                        }
+                        order = max(order, prior.order + 1)
                     }
-                    order = max(order, prior.order + 1)
                 }
             }
 
@@ -661,7 +941,7 @@ class Graph @JvmOverloads constructor(
         target: Behavior<*>,
         stack: MutableList<Resource>
     ): Boolean {
-        currentBehavior.demands?.forEach { aResource ->
+        currentBehavior.internalDemands?.forEach { aResource ->
             stack.add(aResource)
             var b = aResource.suppliedBy
             if (b != null) {
@@ -683,7 +963,7 @@ class Graph @JvmOverloads constructor(
     }
 
     internal fun updateDemands(behavior: Behavior<*>, newDemands: List<Linkable>?) {
-        if (behavior.extent.addedToGraphWhen == null) {
+        if (behavior.extent.addedToGraphWhen == NoSequence) {
             bgassert(false) {
                 "Behavior must belong to graph before updating demands. \nDemanding Behavior=$behavior"
             }
@@ -699,7 +979,7 @@ class Graph @JvmOverloads constructor(
     }
 
     internal fun updateSupplies(behavior: Behavior<*>, newSupplies: List<Linkable>?) {
-        if (behavior.extent.addedToGraphWhen == null) {
+        if (behavior.extent.addedToGraphWhen == NoSequence) {
             bgassert(false) {
                 "Behavior must belong to graph before updating supplies. \nDemanding Behavior=$behavior"
             }
@@ -721,44 +1001,57 @@ class Graph @JvmOverloads constructor(
     }
 
     private fun removeBehavior(behavior: Behavior<*>, sequence: Long) {
-        if (behavior.removedWhen != null) { // already removed
+        if (behavior.removedWhen != NoSequence) { // already removed
             return
         }
 
         // If we demand a foreign resource then we should be
         // removed from its list of subsequents
         var removed = false
-        behavior.demands?.forEach { demand ->
-            if (demand.extent != behavior.extent) {
-                demand.subsequents.remove(behavior)
-                removed = true
+        val demands = behavior.internalDemands
+        if (demands != null) {
+            for (i in 0 until demands.size) {
+                val demand = demands[i]
+                if (demand.extent != behavior.extent) {
+                    demand.subsequents.remove(behavior)
+                    demand.demandRemoved()
+                    removed = true
+                }
             }
         }
         // and remove foreign demands
         // its faster to erase the whole list than pick out the foreign ones
         if (removed) {
-            behavior.demands = null
+            behavior.internalDemands = null
         }
 
         // any foreign resources should no longer be supplied by this behavior
         removed = false
-        behavior.supplies?.forEach { supply ->
-            if (supply.extent != behavior.extent) {
-                supply.suppliedBy = null
-                removed = true
+        val supplies = behavior.internalSupplies
+        if (supplies != null) {
+            for (i in 0 until supplies.size) {
+                val supply = supplies[i]
+                if (supply.extent != behavior.extent) {
+                    supply.suppliedBy = null
+                    removed = true
+                }
             }
         }
         // and clear out those foreign supplies
         // its faster to clear whole list than pick out individual foreign ones
         if (removed) {
-            behavior.supplies = null
+            behavior.internalSupplies = null
         }
 
         behavior.removedWhen = sequence
+        if (behavior.id >= 0) {
+            behaviorIds.release(behavior.id)
+            behavior.id = -1
+        }
     }
 
     internal fun addExtent(extent: Extent<*>) {
-        if (extent.addedToGraphWhen != null) {
+        if (extent.addedToGraphWhen != NoSequence) {
             bgassert(false) {
                 "Extent $extent has already been added to the graph: ${extent.graph}"
             }
@@ -769,15 +1062,51 @@ class Graph @JvmOverloads constructor(
                 "Extents can only be added inside an action or behavior running on the current thread. \nExtent=$extent"
             }
         }
+        linkExtent(extent)
+    }
 
+    /**
+     * Adds all of [extents] to the graph in one call.
+     * It is equivalent to calling [Extent.addToGraph] on each one, but the calling context is checked once
+     * and the graph's bookkeeping is sized for the whole batch up front.
+     * Must be called inside an action or behavior.
+     */
+    fun addExtents(extents: Collection<Extent<*>>) {
+        if (!processingChangesOnCurrentThread) {
+            bgassert(false) {
+                "addExtents must be called within an event."
+            }
+            return
+        }
+        var behaviorCount = 0
+        for (extent in extents) {
+            behaviorCount += extent.behaviors.size
+        }
+        extentsAdded.ensureCapacity(extentsAdded.size + extents.size)
+        untrackedBehaviors.ensureCapacity(untrackedBehaviors.size + behaviorCount)
+        for (extent in extents) {
+            if (extent.addedToGraphWhen != NoSequence) {
+                bgassert(false) {
+                    "Extent $extent has already been added to the graph: ${extent.graph}"
+                }
+                continue
+            }
+            if (automaticResourceNaming) {
+                extent.nameResources()
+            }
+            linkExtent(extent)
+        }
+    }
+
+    private fun linkExtent(extent: Extent<*>) {
         if (validateLifetimes) {
             if (extent.lifetime != null) {
-                if (extent.lifetime?.addedToGraphWhen == null) {
-                    extent.lifetime?.addedToGraphWhen = currentEvent?.sequence
+                if (extent.lifetime?.addedToGraphWhen == NoSequence) {
+                    extent.lifetime?.addedToGraphWhen = currentSequence
                 }
             }
             val refParent = extent.lifetime?.parent
-            if (refParent != null && refParent.addedToGraphWhen == null) {
+            if (refParent != null && refParent.addedToGraphWhen == NoSequence) {
                 bgassert(false) {
                     "Extent with child lifetime must be added after parent."
                 }
@@ -785,12 +1114,21 @@ class Graph @JvmOverloads constructor(
             }
         }
 
-        extent.addedToGraphWhen = currentEvent?.sequence
+        extent.addedToGraphWhen = currentSequence
+        if (extent.definedBehaviorCount < 0) {
+            extent.definedBehaviorCount = extent.behaviors.size
+        }
         extentsAdded.add(extent)
-        activateBehavior(extent.didAddBehavior, currentEvent?.sequence ?: 0)
+        extentRegistry?.add(extent)
+        for (resource in extent.resources) {
+            assignId(resource)
+            resource.forEachDependentResource(assignDependentId)
+        }
         for (behavior in extent.behaviors) {
+            assignId(behavior)
             addBehavior(behavior)
         }
+        activateBehavior(extent.didAddBehavior)
     }
 
     internal fun removeExtent(extent: Extent<*>) {
@@ -800,18 +1138,201 @@ class Graph @JvmOverloads constructor(
             }
             return
         }
+        unlinkExtent(extent)
+    }
+
+    /**
+     * Removes all of [extents] from the graph in one call.
+     * It is equivalent to calling [Extent.removeFromGraph] on each one with the same [strategy], but the calling
+     * context is checked once and extents reached more than once through shared lifetimes are only removed once.
+     * Must be called inside an action or behavior.
+     */
+    @JvmOverloads
+    fun removeExtents(extents: Collection<Extent<*>>, strategy: ExtentRemoveStrategy = ExtentRemoveStrategy.ExtentOnly) {
+        if (!processingChangesOnCurrentThread) {
+            bgassert(false) {
+                "removeExtents must be called within an event."
+            }
+            return
+        }
+        // extents sharing a lifetime hierarchy walk it only once
+        val visited = HashSet<ExtentLifetime>()
+        for (extent in extents) {
+            if (extent.addedToGraphWhen == NoSequence) {
+                continue
+            }
+            val lifetime = extent.lifetime
+            if (strategy == ExtentRemoveStrategy.ExtentOnly || lifetime == null) {
+                unlinkExtent(extent)
+            } else {
+                lifetime.forEachContainedLifetime(visited) { contained ->
+                    for (containedExtent in contained.extents) {
+                        if (containedExtent.addedToGraphWhen != NoSequence) {
+                            unlinkExtent(containedExtent)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private fun unlinkExtent(extent: Extent<*>) {
         extentsRemoved.add(extent)
+        extentRegistry?.remove(extent)
         for (behavior in extent.behaviors) {
-            removeBehavior(behavior, currentEvent?.sequence ?: 0)
+            removeBehavior(behavior, currentSequence)
+        }
+        for (resource in extent.resources) {
+            releaseId(resource)
+            resource.forEachDependentResource(releaseDependentId)
+        }
+        extent.addedToGraphWhen = NoSequence
+        extent.removedWhen = currentSequence
+        leakDetector?.forget(extent)
+    }
+
+    /**
+     * Exports the current links between behaviors and resources in compressed sparse row form
+     * indexed by [Behavior.id] and [Resource.id] for use in analysis tools.
+     * Only extents added while [enableExtentTracking] is on are included, rows for other ids are empty.
+     * Call this from inside an action or while the graph is idle.
+     */
+    fun exportAdjacency(): GraphAdjacency {
+        val behaviorCount = behaviorIds.capacity
+        val resourceCount = resourceIds.capacity
+        val registry = extentRegistry
+        val demandOffsets = IntArray(behaviorCount + 1)
+        val supplyOffsets = IntArray(behaviorCount + 1)
+        val subsequentOffsets = IntArray(resourceCount + 1)
+
+        // first pass counts each row so offsets can be computed
+        registry?.forEach { extent ->
+            for (behavior in extent.behaviors) {
+                if (behavior.removedWhen == NoSequence && behavior.id >= 0) {
+                    demandOffsets[behavior.id + 1] = behavior.internalDemands?.size ?: 0
+                    supplyOffsets[behavior.id + 1] = behavior.internalSupplies?.size ?: 0
+                }
+            }
+            for (resource in extent.resources) {
+                if (resource.id >= 0) {
+                    subsequentOffsets[resource.id + 1] = resource.subsequents.size
+                }
+                resource.forEachDependentResource { dependent ->
+                    if (dependent.id >= 0) {
+                        subsequentOffsets[dependent.id + 1] = dependent.subsequents.size
+                    }
+                }
+            }
+        }
+        for (i in 1..behaviorCount) {
+            demandOffsets[i] += demandOffsets[i - 1]
+            supplyOffsets[i] += supplyOffsets[i - 1]
+        }
+        for (i in 1..resourceCount) {
+            subsequentOffsets[i] += subsequentOffsets[i - 1]
+        }
+
+        // second pass fills in the ids
+        val demandIds = IntArray(demandOffsets[behaviorCount])
+        val supplyIds = IntArray(supplyOffsets[behaviorCount])
+        val subsequentIds = IntArray(subsequentOffsets[resourceCount])
+        registry?.forEach { extent ->
+            for (behavior in extent.behaviors) {
+                if (behavior.removedWhen == NoSequence && behavior.id >= 0) {
+                    behavior.internalDemands?.let { demands ->
+                        val start = demandOffsets[behavior.id]
+                        for (j in 0 until demands.size) {
+                            demandIds[start + j] = demands[j].id
+                        }
+                    }
+                    behavior.internalSupplies?.let { supplies ->
+                        val start = supplyOffsets[behavior.id]
+                        for (j in 0 until supplies.size) {
+                            supplyIds[start + j] = supplies[j].id
+                        }
+                    }
+                }
+            }
+            for (resource in extent.resources) {
+                fillSubsequents(resource, subsequentOffsets, subsequentIds)
+                resource.forEachDependentResource { fillSubsequents(it, subsequentOffsets, subsequentIds) }
+            }
+        }
+        return GraphAdjacency(
+            behaviorCount, resourceCount,
+            demandOffsets, demandIds,
+            supplyOffsets, supplyIds,
+            subsequentOffsets, subsequentIds
+        )
+    }
+
+    private fun fillSubsequents(resource: Resource, offsets: IntArray, ids: IntArray) {
+        if (resource.id >= 0) {
+            val start = offsets[resource.id]
+            for (j in 0 until resource.subsequents.size) {
+                ids[start + j] = resource.subsequents[j].id
+            }
+        }
+    }
+
+    /**
+     * Reports the extents in the graph grouped by class with counts of their behaviors, resources and links
+     * and an estimate of the memory they hold. See [GraphFootprint].
+     * Only extents added while [enableExtentTracking] is on are included.
+     * It only visits each extent once and does not allocate per extent, so it can be called periodically.
+     * Call this from inside an action or while the graph is idle, or use [footprintWithAction] from other threads.
+     */
+    fun footprint(): GraphFootprint {
+        val byClass = HashMap<KClass<*>, LongArray>()
+        extentRegistry?.forEach { extent ->
+            val totals = byClass.getOrPut(extent::class) { LongArray(6) }
+            var bytes = FootprintEstimate.EXTENT_BYTES +
+                    FootprintEstimate.list(extent.resources.size) +
+                    FootprintEstimate.list(extent.behaviors.size)
+            val lifetime = extent.lifetime
+            if (lifetime != null) {
+                // a shared lifetime is split between its extents
+                bytes += FootprintEstimate.lifetime(lifetime) / lifetime.extents.size
+            }
+            for (behavior in extent.behaviors) {
+                totals[3] += (behavior.internalDemands?.size ?: 0).toLong()
+                totals[4] += (behavior.internalSupplies?.size ?: 0).toLong()
+                bytes += behavior.estimatedBytes()
+            }
+            for (resource in extent.resources) {
+                bytes += resource.estimatedBytes()
+            }
+            totals[0]++
+            totals[1] += extent.behaviors.size.toLong()
+            totals[2] += extent.resources.size.toLong()
+            totals[5] += bytes
+        }
+        val classes = byClass.map { (type, totals) ->
+            ExtentFootprint(type, totals[0].toInt(), totals[1].toInt(), totals[2].toInt(), totals[3].toInt(), totals[4].toInt(), totals[5])
+        }.sortedByDescending { it.estimatedBytes }
+        return GraphFootprint(classes)
+    }
+
+    /**
+     * Creates an action that computes [footprint]. This is safe to call from any thread, such as one that collects metrics.
+     */
+    fun footprintWithAction(): Deferred<GraphFootprint> {
+        val result = CompletableDeferred<GraphFootprint>()
+        val job = action("footprint") {
+            result.complete(footprint())
+        }
+        job.invokeOnCompletion { cause ->
+            if (cause != null) {
+                result.completeExceptionally(cause)
+            }
         }
-        extent.addedToGraphWhen = null
+        return result
     }
 
     override fun toString(): String {
         return buildString {
             if (currentEvent != null) {
-                val eventNumber = currentEvent?.sequence ?: 0
-                append("Current Event: $eventNumber\n")
+                append("Current Event: $currentSequence\n")
             } else {
                 append("No current event")
             }
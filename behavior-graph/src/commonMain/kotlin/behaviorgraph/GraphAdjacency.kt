@@ -0,0 +1,46 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+/**
+ * The links of a [Graph] in compressed sparse row form as returned by [Graph.exportAdjacency].
+ *
+ * Rows are indexed by [Behavior.id] and [Resource.id]. For example the resource ids demanded by the
+ * behavior with id `b` are the entries of `demandIds` from `demandOffsets[b]` until `demandOffsets[b + 1]`.
+ * Ids belonging to behaviors or resources that are not part of the graph have empty rows.
+ *
+ * @property behaviorCount Number of behavior rows, one more than the largest behavior id handed out so far.
+ * @property resourceCount Number of resource rows, one more than the largest resource id handed out so far.
+ * @property demandOffsets Row offsets into [demandIds], size `behaviorCount + 1`.
+ * @property demandIds Resource ids demanded by each behavior.
+ * @property supplyOffsets Row offsets into [supplyIds], size `behaviorCount + 1`.
+ * @property supplyIds Resource ids supplied by each behavior.
+ * @property subsequentOffsets Row offsets into [subsequentIds], size `resourceCount + 1`.
+ * @property subsequentIds Behavior ids which demand each resource.
+ */
+class GraphAdjacency internal constructor(
+    val behaviorCount: Int,
+    val resourceCount: Int,
+    val demandOffsets: IntArray,
+    val demandIds: IntArray,
+    val supplyOffsets: IntArray,
+    val supplyIds: IntArray,
+    val subsequentOffsets: IntArray,
+    val subsequentIds: IntArray
+) {
+    /**
+     * Resource ids demanded by the behavior with the given id.
+     */
+    fun demandsOf(behaviorId: Int): IntArray = demandIds.copyOfRange(demandOffsets[behaviorId], demandOffsets[behaviorId + 1])
+
+    /**
+     * Resource ids supplied by the behavior with the given id.
+     */
+    fun suppliesOf(behaviorId: Int): IntArray = supplyIds.copyOfRange(supplyOffsets[behaviorId], supplyOffsets[behaviorId + 1])
+
+    /**
+     * Behavior ids which demand the resource with the given id.
+     */
+    fun subsequentsOf(resourceId: Int): IntArray = subsequentIds.copyOfRange(subsequentOffsets[resourceId], subsequentOffsets[resourceId + 1])
+}
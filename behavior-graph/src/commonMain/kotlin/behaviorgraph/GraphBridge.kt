@@ -0,0 +1,185 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import behaviorgraph.Event.Companion.NoSequence
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A GraphBridge mirrors resources of a [source] graph into resources of a [target] graph.
+ * Nodes in one graph cannot link to nodes in another, so a bridge lets an application be split into
+ * shards, each its own graph running on its own thread, that still share well defined state.
+ *
+ * Each mirrored resource is a normal resource of the target graph which is updated by the bridge,
+ * so target behaviors demand it like any other resource.
+ * All mirrored changes from one source event are applied together in a single action on the target graph,
+ * and those actions are created in the same order as the source events. Behaviors in the target graph
+ * therefore never see half of a source event, and a later source event never arrives before an earlier one.
+ *
+ * Changes are sent from a side effect once the source event has run all of its behaviors. Without a [dispatcher]
+ * the target action is created directly from that side effect. If the target graph is idle it runs right away on
+ * the source graph's thread, after the source event's behaviors. If it is busy it is queued and run by the target
+ * graph's thread. With a [dispatcher] changes are handed to a coroutine on it which creates the target actions,
+ * so the source graph never waits on the target.
+ *
+ * A failing target action never fails the source event. It is passed to [onError] on whichever thread ran it,
+ * and later changes are still delivered.
+ *
+ * Example:
+ * ```kotlin
+ * val bridge = GraphBridge(pricingGraph, uiGraph)
+ * val uiPrice = bridge.mirror(pricing.price, uiExtent)
+ * ```
+ */
+class GraphBridge @JvmOverloads constructor(
+    val source: Graph,
+    val target: Graph,
+    dispatcher: CoroutineDispatcher? = null,
+    private val onError: ((Throwable) -> Unit)? = null
+) {
+    private class Mirror(val apply: (Any?) -> Unit)
+
+    private class Batch(val event: Event, val mirrors: ArrayList<Mirror>, val values: ArrayList<Any?>)
+
+    private val forwarders: MutableList<Behavior<*>> = mutableListOf()
+    private var batch: Batch? = null
+    private var channel: Channel<Batch>? = null
+    private var closed = false
+
+    init {
+        if (dispatcher != null) {
+            val batches = Channel<Batch>(Channel.UNLIMITED)
+            // a single consumer keeps target actions in source event order
+            CoroutineScope(dispatcher + SupervisorJob()).launch {
+                for (next in batches) {
+                    deliver(next)
+                }
+            }
+            channel = batches
+        }
+    }
+
+    /**
+     * Creates a State in [targetExtent] that follows [state].
+     * It starts with the current value of [state] and is updated whenever [state] is.
+     * The mirror uses the same [State.equality].
+     */
+    @JvmOverloads
+    fun <T> mirror(state: State<T>, targetExtent: Extent<*>, debugName: String? = null): State<T> {
+        validateEnds(state, targetExtent)
+        val mirrored = State(targetExtent, state.traceValue, debugName ?: state.debugName, state.equality)
+        @Suppress("UNCHECKED_CAST")
+        val mirror = Mirror { mirrored.update(it as T) }
+        // didAdd sends the value again when the source is added in case it changed before then
+        addForwarder(state, listOf(state, state.extent.didAdd)) { record(mirror, state.value) }
+        return mirrored
+    }
+
+    /**
+     * Creates a TypedMoment in [targetExtent] that updates with the same value whenever [moment] does.
+     */
+    @JvmOverloads
+    fun <T> mirror(moment: TypedMoment<T>, targetExtent: Extent<*>, debugName: String? = null): TypedMoment<T> {
+        validateEnds(moment, targetExtent)
+        val mirrored = TypedMoment<T>(targetExtent, debugName ?: moment.debugName)
+        @Suppress("UNCHECKED_CAST")
+        val mirror = Mirror { mirrored.update(it as T) }
+        addForwarder(moment, listOf(moment)) {
+            if (moment.justUpdated) {
+                record(mirror, moment.value)
+            }
+        }
+        return mirrored
+    }
+
+    /**
+     * Stops mirroring. Changes from source events that have already completed may still be applied.
+     */
+    fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+        forwarders.forEach { it.removeEarly() }
+        forwarders.clear()
+        channel?.close()
+    }
+
+    private fun validateEnds(resource: Resource, targetExtent: Extent<*>) {
+        source.bgassert(resource.graph === source) {
+            "Bridged resource must belong to the bridge's source graph. \nResource=$resource"
+        }
+        source.bgassert(targetExtent.graph === target) {
+            "Mirrored resources must be created in an extent of the bridge's target graph. \nExtent=$targetExtent"
+        }
+        source.bgassert(!closed) {
+            "Cannot mirror resources with a closed bridge."
+        }
+    }
+
+    private fun addForwarder(resource: Resource, demands: List<Linkable>, forward: () -> Unit) {
+        @Suppress("UNCHECKED_CAST")
+        val extent = resource.extent as Extent<Any>
+        val forwarder = extent.behavior()
+            .demands(demands)
+            .runs { forward() }
+        forwarders.add(forwarder)
+        if (extent.addedToGraphWhen != NoSequence) {
+            forwarder.addLate()
+        }
+    }
+
+    // runs inside a forwarding behavior on the source graph's thread
+    private fun record(mirror: Mirror, value: Any?) {
+        val event = source.currentEvent ?: return
+        var localBatch = batch
+        // compared by identity since a failed event's sequence is used again by the next event
+        if (localBatch == null || localBatch.event !== event) {
+            localBatch = Batch(event, ArrayList(), ArrayList())
+            batch = localBatch
+            val sending = localBatch
+            // sent once the source event has run all of its behaviors
+            source.sideEffect("Bridge ${event.sequence}") { send(sending) }
+        }
+        localBatch.mirrors.add(mirror)
+        localBatch.values.add(value)
+    }
+
+    private fun send(sending: Batch) {
+        if (batch === sending) {
+            batch = null
+        }
+        val localChannel = channel
+        if (localChannel == null) {
+            deliver(sending)
+        } else {
+            localChannel.trySend(sending)
+        }
+    }
+
+    private fun deliver(delivering: Batch) {
+        val job = try {
+            target.action("Bridge ${delivering.event.sequence}") {
+                for (i in 0 until delivering.mirrors.size) {
+                    delivering.mirrors[i].apply(delivering.values[i])
+                }
+            }
+        } catch (e: Throwable) {
+            // an action the target ran right away rethrows its failure here
+            onError?.invoke(e)
+            return
+        }
+        // a queued action fails later on the target graph's thread
+        job.invokeOnCompletion { cause ->
+            if (cause != null) {
+                onError?.invoke(cause)
+            }
+        }
+    }
+}
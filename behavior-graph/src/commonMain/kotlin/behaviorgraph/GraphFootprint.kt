@@ -0,0 +1,102 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.reflect.KClass
+
+/**
+ * Memory use of the extents of one class in a [GraphFootprint].
+ * @property type The extent class.
+ * @property extents Number of extents of this class in the graph.
+ * @property behaviors Behaviors of those extents.
+ * @property resources Resources of those extents.
+ * @property demandEdges Links from those behaviors to the resources they demand.
+ * @property supplyEdges Links from those behaviors to the resources they supply.
+ * @property estimatedBytes Approximate bytes held by the extents, their behaviors and resources and the links between them.
+ */
+class ExtentFootprint internal constructor(
+    val type: KClass<*>,
+    val extents: Int,
+    val behaviors: Int,
+    val resources: Int,
+    val demandEdges: Int,
+    val supplyEdges: Int,
+    val estimatedBytes: Long
+) {
+    override fun toString(): String {
+        return "${type.simpleName}: extents=$extents behaviors=$behaviors resources=$resources demands=$demandEdges supplies=$supplyEdges bytes=$estimatedBytes"
+    }
+}
+
+/**
+ * Memory use of a graph grouped by extent class as returned by [Graph.footprint].
+ *
+ * Byte counts are estimates for a 64 bit JVM with compressed references. They include the graph's own
+ * bookkeeping and the collections held by resources such as [ListState], but not the values stored in
+ * states, which may be shared with the rest of the program. Use them to compare classes and to follow
+ * growth over time rather than as exact sizes.
+ * @property classes Footprint of each extent class, largest estimate first.
+ */
+class GraphFootprint internal constructor(val classes: List<ExtentFootprint>) {
+    val extents: Int = classes.sumOf { it.extents }
+    val behaviors: Int = classes.sumOf { it.behaviors }
+    val resources: Int = classes.sumOf { it.resources }
+    val demandEdges: Int = classes.sumOf { it.demandEdges }
+    val supplyEdges: Int = classes.sumOf { it.supplyEdges }
+    val estimatedBytes: Long = classes.sumOf { it.estimatedBytes }
+
+    override fun toString(): String {
+        val rows = mutableListOf("Graph Footprint: extents=$extents behaviors=$behaviors resources=$resources demands=$demandEdges supplies=$supplyEdges bytes=$estimatedBytes")
+        classes.forEach { rows.add("  $it") }
+        return rows.joinToString("\n")
+    }
+}
+
+/**
+ * Approximate object sizes used for [GraphFootprint].
+ * Objects have a 12 byte header, references take 4 bytes and sizes are rounded up to 8 bytes.
+ */
+internal object FootprintEstimate {
+    const val EXTENT_BYTES = 64L
+    // includes the thunk, which is usually a lambda capturing the extent
+    const val BEHAVIOR_BYTES = 88L
+    const val RESOURCE_BYTES = 48L
+    const val LIFETIME_BYTES = 24L
+    const val ARRAY_LIST_BYTES = 24L
+    const val HASH_ENTRY_BYTES = 32L
+    const val HASH_TABLE_BYTES = 56L
+
+    fun referenceArray(length: Int): Long = align(16L + 4L * length)
+
+    fun intArray(length: Int): Long = align(16L + 4L * length)
+
+    fun longArray(length: Int): Long = 16L + 8L * length
+
+    // array lists start with room for 10 and grow by half
+    fun list(size: Int): Long {
+        if (size == 0) {
+            return ARRAY_LIST_BYTES
+        }
+        var capacity = 10
+        while (capacity < size) {
+            capacity += capacity shr 1
+        }
+        return ARRAY_LIST_BYTES + referenceArray(capacity)
+    }
+
+    // hash sets and maps share the same layout, a table of buckets plus an entry per element
+    fun hashed(size: Int): Long = HASH_TABLE_BYTES + referenceArray(size * 2) + HASH_ENTRY_BYTES * size
+
+    fun lifetime(lifetime: ExtentLifetime): Long {
+        return LIFETIME_BYTES + hashed(lifetime.extents.size) + (lifetime.children?.let { hashed(it.size) } ?: 0)
+    }
+
+    fun links(links: List<Linkable>?): Long = when (links) {
+        null -> 0
+        is TemplateLinks -> 16
+        else -> list(links.size)
+    }
+
+    private fun align(bytes: Long): Long = (bytes + 7) and 7L.inv()
+}
@@ -0,0 +1,160 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.consumeEach
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.yield
+import kotlin.jvm.JvmOverloads
+
+/**
+ * Counters for the work done by a [GraphPool] as returned by [GraphPool.metrics].
+ * @property graphs Graphs currently attached to the pool.
+ * @property submittedActions Actions submitted to all graphs since the pool was created.
+ * @property completedActions Submitted actions that have finished running or were cancelled.
+ * @property queuedActions Submitted actions that are still waiting to run.
+ * @property yields Times a graph gave up its worker after running [GraphPool.quantum] actions in a row.
+ */
+class GraphPoolMetrics internal constructor(
+    val graphs: Int,
+    val submittedActions: Int,
+    val completedActions: Int,
+    val yields: Int
+) {
+    val queuedActions: Int get() = submittedActions - completedActions
+
+    override fun toString(): String {
+        return "GraphPool: graphs=$graphs submitted=$submittedActions completed=$completedActions queued=$queuedActions yields=$yields"
+    }
+}
+
+/**
+ * A GraphPool runs the actions of many graphs on a shared [dispatcher] instead of on the threads that create them.
+ * This suits applications with a large number of small graphs, such as one per user session, so the work scales
+ * with the dispatcher's threads rather than with the number of threads producing actions.
+ *
+ * Each attached graph gets a [PooledGraph] with its own queue. Actions for one graph run one at a time in the order
+ * they were submitted, while different graphs run in parallel on the dispatcher's threads.
+ * The default dispatcher shares work between its threads, so a busy thread does not hold up waiting graphs.
+ * A graph with a long queue gives up its thread after [quantum] actions so other graphs get a turn.
+ *
+ * Example:
+ * ```kotlin
+ * val pool = GraphPool()
+ * val session = pool.attach(Graph())
+ * session.action { sessionExtent.request.update(request) }
+ * ```
+ * @param dispatcher Runs the actions. Defaults to [Dispatchers.Default].
+ * @param quantum Actions a graph runs in a row before giving other graphs a turn.
+ */
+class GraphPool @JvmOverloads constructor(
+    dispatcher: CoroutineDispatcher = Dispatchers.Default,
+    val quantum: Int = 16
+) {
+    private val platformSpecific = makePlatformSpecific()
+    private val scope = CoroutineScope(dispatcher + SupervisorJob())
+    internal val attached: AtomicCounter = platformSpecific.makeAtomicCounter()
+    internal val detached: AtomicCounter = platformSpecific.makeAtomicCounter()
+    internal val submitted: AtomicCounter = platformSpecific.makeAtomicCounter()
+    internal val completed: AtomicCounter = platformSpecific.makeAtomicCounter()
+    internal val yields: AtomicCounter = platformSpecific.makeAtomicCounter()
+
+    /**
+     * Attaches [graph] to the pool. Submit its actions through the returned [PooledGraph].
+     * Call [PooledGraph.detach] once the graph is no longer needed.
+     */
+    fun attach(graph: Graph): PooledGraph {
+        val pooled = PooledGraph(this, graph)
+        attached.getAndIncrement()
+        scope.launch {
+            pooled.runActions()
+        }
+        return pooled
+    }
+
+    /**
+     * Current counters for the pool.
+     */
+    fun metrics(): GraphPoolMetrics {
+        return GraphPoolMetrics(attached.get() - detached.get(), submitted.get(), completed.get(), yields.get())
+    }
+
+    /**
+     * Stops running actions for all attached graphs. Actions that have not started are cancelled.
+     */
+    fun close() {
+        scope.cancel()
+    }
+}
+
+/**
+ * A [Graph] attached to a [GraphPool]. Its actions run on the pool's dispatcher one at a time in submission order.
+ */
+class PooledGraph internal constructor(private val pool: GraphPool, val graph: Graph) {
+    // actions that never run are cancelled so anyone waiting on them is released
+    private val queue = Channel<RunnableAction>(Channel.UNLIMITED) { it.job.cancel() }
+    private val submitted: AtomicCounter = graph.platformSpecific.makeAtomicCounter()
+    private val completed: AtomicCounter = graph.platformSpecific.makeAtomicCounter()
+
+    /**
+     * Submitted actions for this graph that are still waiting to run.
+     */
+    val queuedActions: Int get() = submitted.get() - completed.get()
+
+    /**
+     * Queues an action to run on the pool. The returned job completes once its event has finished,
+     * or completes exceptionally if the action throws.
+     * Calling [Graph.action] directly still works and is serialized with pooled actions by the graph.
+     */
+    @JvmOverloads
+    fun action(debugName: String? = null, thunk: Thunk): Job {
+        val action = GraphAction(thunk, debugName)
+        submitted.getAndIncrement()
+        pool.submitted.getAndIncrement()
+        // counted as the job completes so the metrics agree with anyone waiting on it
+        action.job.invokeOnCompletion {
+            completed.getAndIncrement()
+            pool.completed.getAndIncrement()
+        }
+        if (!queue.trySend(action).isSuccess) {
+            action.job.cancel()
+        }
+        return action.job
+    }
+
+    /**
+     * Detaches the graph from the pool. Actions already submitted still run and later ones are cancelled.
+     */
+    fun detach() {
+        if (queue.close()) {
+            pool.detached.getAndIncrement()
+        }
+    }
+
+    internal suspend fun runActions() {
+        var runInRow = 0
+        queue.consumeEach { action ->
+            try {
+                graph.actionInternal(action)
+            } catch (e: Throwable) {
+                // the failure is reported through the action's job
+            }
+            // the graph queues the action instead if another thread is running it
+            action.job.join()
+            runInRow++
+            if (runInRow >= pool.quantum) {
+                runInRow = 0
+                pool.yields.getAndIncrement()
+                yield()
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+/**
+ * Hands out dense ids starting at 0. Released ids are handed out again before new ones,
+ * so arrays indexed by them only grow as large as the most ids ever taken at the same time.
+ */
+internal class IdAllocator {
+    private var free = IntArray(16)
+    private var freeCount = 0
+
+    /**
+     * One more than the largest id handed out so far.
+     */
+    var capacity: Int = 0
+        private set
+
+    fun take(): Int {
+        if (freeCount > 0) {
+            freeCount--
+            return free[freeCount]
+        }
+        return capacity++
+    }
+
+    fun release(id: Int) {
+        if (freeCount == free.size) {
+            free = free.copyOf(free.size * 2)
+        }
+        free[freeCount] = id
+        freeCount++
+    }
+}
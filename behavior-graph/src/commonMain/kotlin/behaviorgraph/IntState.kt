@@ -0,0 +1,90 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.Job
+import kotlin.jvm.JvmName
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A [State] specialized for `Int` values.
+ * Current and prior values are kept in primitive fields so updates do not allocate.
+ * Its members behave like those of [State] with `==` as the equality.
+ */
+class IntState @JvmOverloads constructor(extent: Extent<*>, private val initialValue: Int, debugName: String? = null) :
+    AbstractState(extent, debugName) {
+    private var currentValue: Int = initialValue
+    private var priorValue: Int = initialValue
+
+    /**
+     * See [State.value].
+     */
+    @get:JvmName("value")
+    val value: Int
+        get() {
+            assertValidAccessor()
+            return currentValue
+        }
+
+    /**
+     * See [State.traceValue].
+     */
+    @get:JvmName("traceValue")
+    val traceValue: Int
+        get() = if (updatedThisEvent) priorValue else currentValue
+
+    /**
+     * See [State.updateWithAction].
+     */
+    @JvmOverloads
+    fun updateWithAction(newValue: Int, debugName: String? = null): Job {
+        return graph.action(debugName, { update(newValue) })
+    }
+
+    /**
+     * See [State.update].
+     */
+    fun update(newValue: Int) {
+        if (newValue != currentValue) {
+            updateForce(newValue)
+        }
+    }
+
+    /**
+     * See [State.updateForce].
+     */
+    fun updateForce(newValue: Int) {
+        applyUpdate { currentValue = newValue }
+    }
+
+    /**
+     * See [State.justUpdatedTo].
+     */
+    fun justUpdatedTo(toValue: Int): Boolean = justUpdatedAnd(currentValue == toValue)
+
+    /**
+     * See [State.justUpdatedFrom].
+     */
+    fun justUpdatedFrom(fromValue: Int): Boolean = justUpdatedAnd(priorValue == fromValue)
+
+    /**
+     * See [State.justUpdatedToFrom].
+     */
+    fun justUpdatedToFrom(toValue: Int, fromValue: Int): Boolean =
+        justUpdatedAnd(currentValue == toValue && priorValue == fromValue)
+
+    override fun savePriorValue() {
+        priorValue = currentValue
+    }
+
+    override fun snapshotValue(): Any? = currentValue
+
+    override fun reset() {
+        super.reset()
+        currentValue = initialValue
+        priorValue = initialValue
+    }
+
+    override fun toString(): String = describe(currentValue)
+}
@@ -0,0 +1,109 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.jvm.JvmName
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A State resource holding a list that is changed in place.
+ * Each mutation is recorded, so [justAdded] and [justRemoved] describe what changed during the current event.
+ * Replacing an element with [set] records the old element as removed and the new one as added.
+ * A behavior must supply this resource in order to change it.
+ */
+class ListState<E> @JvmOverloads constructor(extent: Extent<*>, initialItems: Collection<E> = emptyList(), debugName: String? = null) :
+    CollectionState<E>(extent, debugName) {
+    private val items: ArrayList<E> = ArrayList(initialItems)
+    // for reset, see CollectionState
+    private val initialItems: List<E> = if (initialItems.isEmpty()) emptyList() else ArrayList(initialItems)
+
+    /**
+     * The current list. It is a live read only view, do not hold onto it across events.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("value")
+    val value: List<E>
+        get() {
+            assertValidAccessor()
+            return items
+        }
+
+    fun add(element: E) {
+        if (beginChange()) {
+            items.add(element)
+            addedLog.add(element)
+        }
+    }
+
+    fun add(index: Int, element: E) {
+        if (beginChange()) {
+            items.add(index, element)
+            addedLog.add(element)
+        }
+    }
+
+    fun addAll(elements: Collection<E>) {
+        if (beginChange()) {
+            items.addAll(elements)
+            addedLog.addAll(elements)
+        }
+    }
+
+    /**
+     * Replaces the element at [index] and returns the element that was there.
+     */
+    fun set(index: Int, element: E): E {
+        if (!beginChange()) {
+            return items[index]
+        }
+        val previous = items.set(index, element)
+        removedLog.add(previous)
+        addedLog.add(element)
+        return previous
+    }
+
+    fun removeAt(index: Int): E {
+        if (!beginChange()) {
+            return items[index]
+        }
+        val previous = items.removeAt(index)
+        removedLog.add(previous)
+        return previous
+    }
+
+    /**
+     * Removes the first occurrence of [element]. Does not update the resource if it is not in the list.
+     */
+    fun remove(element: E): Boolean {
+        val index = items.indexOf(element)
+        if (index < 0) {
+            return false
+        }
+        removeAt(index)
+        return true
+    }
+
+    /**
+     * Removes every element.
+     */
+    fun removeAll() {
+        if (items.isNotEmpty() && beginChange()) {
+            removedLog.addAll(items)
+            items.clear()
+        }
+    }
+
+    // collections change in place so the snapshot gets a copy
+    override fun snapshotValue(): Any? = items.toList()
+
+    override fun estimatedBytes(): Long = super.estimatedBytes() + FootprintEstimate.list(items.size)
+
+    override fun reset() {
+        super.reset()
+        items.clear()
+        items.addAll(initialItems)
+    }
+
+    override fun toString(): String = describe(items)
+}
@@ -0,0 +1,90 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.Job
+import kotlin.jvm.JvmName
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A [State] specialized for `Long` values.
+ * Current and prior values are kept in primitive fields so updates do not allocate.
+ * Its members behave like those of [State] with `==` as the equality.
+ */
+class LongState @JvmOverloads constructor(extent: Extent<*>, private val initialValue: Long, debugName: String? = null) :
+    AbstractState(extent, debugName) {
+    private var currentValue: Long = initialValue
+    private var priorValue: Long = initialValue
+
+    /**
+     * See [State.value].
+     */
+    @get:JvmName("value")
+    val value: Long
+        get() {
+            assertValidAccessor()
+            return currentValue
+        }
+
+    /**
+     * See [State.traceValue].
+     */
+    @get:JvmName("traceValue")
+    val traceValue: Long
+        get() = if (updatedThisEvent) priorValue else currentValue
+
+    /**
+     * See [State.updateWithAction].
+     */
+    @JvmOverloads
+    fun updateWithAction(newValue: Long, debugName: String? = null): Job {
+        return graph.action(debugName, { update(newValue) })
+    }
+
+    /**
+     * See [State.update].
+     */
+    fun update(newValue: Long) {
+        if (newValue != currentValue) {
+            updateForce(newValue)
+        }
+    }
+
+    /**
+     * See [State.updateForce].
+     */
+    fun updateForce(newValue: Long) {
+        applyUpdate { currentValue = newValue }
+    }
+
+    /**
+     * See [State.justUpdatedTo].
+     */
+    fun justUpdatedTo(toValue: Long): Boolean = justUpdatedAnd(currentValue == toValue)
+
+    /**
+     * See [State.justUpdatedFrom].
+     */
+    fun justUpdatedFrom(fromValue: Long): Boolean = justUpdatedAnd(priorValue == fromValue)
+
+    /**
+     * See [State.justUpdatedToFrom].
+     */
+    fun justUpdatedToFrom(toValue: Long, fromValue: Long): Boolean =
+        justUpdatedAnd(currentValue == toValue && priorValue == fromValue)
+
+    override fun savePriorValue() {
+        priorValue = currentValue
+    }
+
+    override fun snapshotValue(): Any? = currentValue
+
+    override fun reset() {
+        super.reset()
+        currentValue = initialValue
+        priorValue = initialValue
+    }
+
+    override fun toString(): String = describe(currentValue)
+}
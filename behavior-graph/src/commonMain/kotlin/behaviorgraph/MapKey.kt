@@ -0,0 +1,106 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.jvm.JvmName
+
+/**
+ * A resource standing for a single key of a [MapState]. Get one with [MapState.key].
+ * A behavior that demands a MapKey is only activated when that key is inserted, replaced or removed,
+ * rather than on every change to the map.
+ * It is supplied by whichever behavior supplies the map, so it cannot be linked as a supply itself.
+ * The map lets go of a key resource once no behavior demands it, so [MapState.key] may return a new one later.
+ */
+class MapKey<K, V> internal constructor(val map: MapState<K, V>, val key: K) :
+    Resource(map.extent, map.debugName?.let { "$it[$key]" }) {
+    private var updatedEvent: Event? = null
+    // false once released by the map because nothing demands it
+    internal var registered: Boolean = true
+    // another resource for the same key, only when a released one is demanded again
+    internal var nextForKey: MapKey<K, V>? = null
+
+    init {
+        suppliedBy = map.suppliedBy
+    }
+
+    /**
+     * The value currently associated with this key or null if the key is not in the map.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("value")
+    val value: V?
+        get() {
+            assertValidAccessor()
+            return map.valueForKey(key)
+        }
+
+    /**
+     * Is the key in the map.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("isPresent")
+    val isPresent: Boolean
+        get() {
+            assertValidAccessor()
+            return map.containsKeyUnchecked(key)
+        }
+
+    /**
+     * The last event this key changed, or null if it hasn't changed since this resource was created.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("event")
+    val event: Event?
+        get() {
+            assertValidAccessor()
+            return updatedEvent
+        }
+
+    /**
+     * Is there a current event and did this key change during this event.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("justUpdated")
+    val justUpdated: Boolean
+        get() {
+            assertValidAccessor()
+            return updatedEvent != null && updatedEvent === graph.currentEvent
+        }
+
+    override val internalJustUpdated: Boolean get() = justUpdated
+
+    override val belongsToExtent: Boolean get() = false
+
+    override fun demandAdded() {
+        if (!registered) {
+            map.retainKey(this)
+        }
+    }
+
+    override fun demandRemoved() {
+        if (subsequents.size == 0 && registered) {
+            map.releaseKey(this)
+        }
+    }
+
+    // released at the end of the event that created it if nothing demands it by then
+    override fun releasePayload() {
+        if (subsequents.size == 0 && registered) {
+            map.releaseKey(this)
+        }
+    }
+
+    override fun reset() {
+        super.reset()
+        updatedEvent = null
+    }
+
+    internal fun keyChanged() {
+        val currentEvent = graph.currentEvent ?: return
+        if (updatedEvent !== currentEvent) {
+            updatedEvent = currentEvent
+            graph.resourceTouched(this)
+        }
+    }
+}
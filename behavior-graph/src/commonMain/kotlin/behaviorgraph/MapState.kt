@@ -0,0 +1,219 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import behaviorgraph.Event.Companion.NoSequence
+import kotlin.jvm.JvmName
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A State resource holding a map that is changed in place. Iteration follows insertion order.
+ * The change log is kept by key: [justAdded] has keys that were inserted, [justRemoved] has keys
+ * that were removed and [justReplaced] has existing keys whose value changed.
+ * Putting a value `==` to the current one does not update the resource.
+ *
+ * Behaviors interested in only a few keys can demand [key] resources instead of the whole map
+ * so they are not activated by changes to unrelated keys.
+ * A behavior must supply this resource in order to change it.
+ */
+class MapState<K, V> @JvmOverloads constructor(extent: Extent<*>, initialEntries: Map<K, V> = emptyMap(), debugName: String? = null) :
+    CollectionState<K>(extent, debugName) {
+    private val entries: LinkedHashMap<K, V> = LinkedHashMap(initialEntries)
+    // for reset, see CollectionState
+    private val initialEntries: Map<K, V> = if (initialEntries.isEmpty()) emptyMap() else LinkedHashMap(initialEntries)
+    internal val replacedLog: ArrayList<K> = ArrayList()
+    // created on demand, most keys are never linked individually
+    private var keyResources: HashMap<K, MapKey<K, V>>? = null
+
+    /**
+     * The current map. It is a live read only view, do not hold onto it across events.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("value")
+    val value: Map<K, V>
+        get() {
+            assertValidAccessor()
+            return entries
+        }
+
+    /**
+     * Keys already in the map whose value changed during the current event.
+     * A behavior must demand this resource to access this property.
+     */
+    @get:JvmName("justReplaced")
+    val justReplaced: List<K>
+        get() {
+            assertValidAccessor()
+            return if (updatedThisEvent) replacedLog else emptyList()
+        }
+
+    /**
+     * Returns the resource for a single key, creating it the first time it is asked for.
+     * Demand it to be activated only when that key is inserted, replaced or removed.
+     * The key does not need to be in the map.
+     * Once no behavior demands it the resource is released, and a later call may return a new one.
+     */
+    fun key(key: K): MapKey<K, V> {
+        val resources = keyResources ?: HashMap<K, MapKey<K, V>>().also { keyResources = it }
+        return resources.getOrPut(key) { MapKey(this, key).also { keyCreated(it) } }
+    }
+
+    private fun keyCreated(resource: MapKey<K, V>) {
+        if (extent.addedToGraphWhen != NoSequence) {
+            graph.assignId(resource)
+        }
+        // a key that is only looked at is let go of once the event is over
+        if (graph.processingChangesOnCurrentThread) {
+            graph.releaseAtEndOfEvent(resource)
+        }
+    }
+
+    // linked again after being released, possibly alongside a newer resource for the same key
+    internal fun retainKey(resource: MapKey<K, V>) {
+        val resources = keyResources ?: HashMap<K, MapKey<K, V>>().also { keyResources = it }
+        resource.nextForKey = resources[resource.key]
+        resources[resource.key] = resource
+        resource.registered = true
+        resource.suppliedBy = suppliedBy
+        if (extent.addedToGraphWhen != NoSequence) {
+            graph.assignId(resource)
+        }
+    }
+
+    // nothing demands the key anymore so it no longer needs to follow changes
+    internal fun releaseKey(resource: MapKey<K, V>) {
+        val resources = keyResources ?: return
+        val head = resources[resource.key]
+        if (head === resource) {
+            val next = resource.nextForKey
+            if (next == null) {
+                resources.remove(resource.key)
+            } else {
+                resources[resource.key] = next
+            }
+        } else {
+            var previous = head
+            while (previous != null && previous.nextForKey !== resource) {
+                previous = previous.nextForKey
+            }
+            previous?.nextForKey = resource.nextForKey
+        }
+        resource.nextForKey = null
+        resource.registered = false
+        graph.releaseId(resource)
+    }
+
+    override fun forEachDependentResource(block: (Resource) -> Unit) {
+        forEachKeyResource(block)
+    }
+
+    internal inline fun forEachKeyResource(block: (MapKey<K, V>) -> Unit) {
+        val resources = keyResources ?: return
+        for (head in resources.values) {
+            var resource: MapKey<K, V>? = head
+            while (resource != null) {
+                block(resource)
+                resource = resource.nextForKey
+            }
+        }
+    }
+
+    private fun keyChanged(key: K) {
+        var resource = keyResources?.get(key)
+        while (resource != null) {
+            resource.keyChanged()
+            resource = resource.nextForKey
+        }
+    }
+
+    /**
+     * Associates [value] with [key] and returns the previous value if there was one.
+     */
+    fun put(key: K, value: V): V? {
+        val exists = entries.containsKey(key)
+        val previous = entries[key]
+        if (exists && previous == value) {
+            return previous
+        }
+        if (!beginChange()) {
+            return previous
+        }
+        entries[key] = value
+        if (exists) {
+            replacedLog.add(key)
+        } else {
+            addedLog.add(key)
+        }
+        keyChanged(key)
+        return previous
+    }
+
+    fun putAll(from: Map<out K, V>) {
+        for ((key, value) in from) {
+            put(key, value)
+        }
+    }
+
+    /**
+     * Removes [key] and returns its value. Does not update the resource if the key is not in the map.
+     */
+    fun remove(key: K): V? {
+        if (!entries.containsKey(key) || !beginChange()) {
+            return null
+        }
+        removedLog.add(key)
+        keyChanged(key)
+        return entries.remove(key)
+    }
+
+    /**
+     * Removes every entry.
+     */
+    fun removeAll() {
+        if (entries.isNotEmpty() && beginChange()) {
+            removedLog.addAll(entries.keys)
+            if (keyResources != null) {
+                for (key in entries.keys) {
+                    keyChanged(key)
+                }
+            }
+            entries.clear()
+        }
+    }
+
+    internal fun valueForKey(key: K): V? = entries[key]
+
+    internal fun containsKeyUnchecked(key: K): Boolean = entries.containsKey(key)
+
+    override fun supplierChanged() {
+        forEachKeyResource { it.suppliedBy = suppliedBy }
+    }
+
+    override fun resetChangeLog() {
+        super.resetChangeLog()
+        replacedLog.clear()
+    }
+
+    override fun snapshotValue(): Any? = entries.toMap()
+
+    override fun estimatedBytes(): Long {
+        var keyResourceBytes = keyResources?.let { FootprintEstimate.hashed(it.size) } ?: 0
+        forEachKeyResource { keyResourceBytes += it.estimatedBytes() }
+        return super.estimatedBytes() + FootprintEstimate.hashed(entries.size) + FootprintEstimate.list(replacedLog.size) + keyResourceBytes
+    }
+
+    override fun reset() {
+        super.reset()
+        entries.clear()
+        entries.putAll(initialEntries)
+        // key resources still demanded by the extent's behaviors are retained again when they are linked
+        forEachKeyResource {
+            it.reset()
+            it.registered = false
+        }
+        keyResources = null
+    }
+
+    override fun toString(): String = describe(entries)
+}
@@ -4,6 +4,10 @@
 package behaviorgraph
 
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
 import kotlin.jvm.JvmOverloads
 import kotlin.jvm.JvmName
 
@@ -12,10 +16,10 @@ import kotlin.jvm.JvmName
  * single moment in time. A Button press is an example of a moment. It happens and then it is over.
  * Use [TypedMoment] if you wish to associate additional data with a Moment.
  */
-class Moment @JvmOverloads constructor(extent: Extent<*>, debugName: String? = null): Resource(extent, debugName),
-    Transient {
-    private var _happened = false
+class Moment @JvmOverloads constructor(extent: Extent<*>, debugName: String? = null): Resource(extent, debugName) {
     private var _happenedWhen: Event? = null
+    private var eventFlows: HashMap<Int, SharedFlow<Event>>? = null
+    private val _happened: Boolean get() = _happenedWhen != null && _happenedWhen === graph.currentEvent
 
     /**
      * If this Moment has ever been update what was the last Event it was updated.
@@ -41,16 +45,21 @@ class Moment @JvmOverloads constructor(extent: Extent<*>, debugName: String? = n
 
     override val internalJustUpdated: Boolean get() = justUpdated
 
+    override fun reset() {
+        super.reset()
+        _happenedWhen = null
+        // see ObserverRegistry
+        eventFlows = null
+    }
+
     /**
      * Mark this Moment resource as updated an activate any dependent behaviors.
      * A behavior must supply this resource in order to update it.
      */
     fun update() {
         assertValidUpdater()
-        _happened = true
         _happenedWhen = graph.currentEvent
         graph.resourceTouched(this)
-        graph.trackTransient(this)
     }
 
     /**
@@ -63,10 +72,6 @@ class Moment @JvmOverloads constructor(extent: Extent<*>, debugName: String? = n
         }
     }
 
-    override fun clear() {
-        _happened = false
-    }
-
     override fun toString(): String {
         val localDebugName = debugName ?: ""
         val localType = super.toString()
@@ -75,18 +80,36 @@ class Moment @JvmOverloads constructor(extent: Extent<*>, debugName: String? = n
         return "$localDebugName $localType == $localUpdated ($localSequence)"
     }
 
-    fun observeUpdates(onUpdated: (Event) -> Unit): Behavior<*> {
-        val extent = this.extent as Extent<Any>
-        val observer = extent.behavior()
-            .demands(this)
-            .runs { _ ->
-                this.extent.sideEffect {
-                    onUpdated(this.event!!)
-                }
-            }
-        if (this.extent.addedToGraphWhen != null) {
-            this.extent.graph.addLateBehavior(observer)
+    /**
+     * Same as [observe]. Call [Observation.removeEarly] or [Observation.cancel] on the result to stop observing.
+     */
+    fun observeUpdates(onUpdated: (Event) -> Unit): Observation {
+        return observe(onUpdated)
+    }
+
+    /**
+     * Calls [onUpdated] with the event at the end of each event in which this moment updates.
+     * All observers of a moment share one behavior and one side effect per event, see [ObserverRegistry].
+     * Call [Observation.cancel] to stop observing.
+     */
+    fun observe(onUpdated: (Event) -> Unit): Observation {
+        return addObserver({ null }) { _, event -> onUpdated(event) }
+    }
+
+    /**
+     * A Flow that emits the event each time this moment updates.
+     * Events are emitted at the end of the event and never wait on collectors, which run on their own dispatcher.
+     * A collector that falls more than [bufferCapacity] events behind misses the oldest ones.
+     * Calls with the same [bufferCapacity] return the same flow, see [ObserverRegistry] for how it is published.
+     * Call it on the graph's thread like [observe].
+     */
+    @JvmOverloads
+    fun asFlow(bufferCapacity: Int = 64): SharedFlow<Event> {
+        val flows = eventFlows ?: HashMap<Int, SharedFlow<Event>>(2).also { eventFlows = it }
+        return flows.getOrPut(bufferCapacity) {
+            val flow = MutableSharedFlow<Event>(0, bufferCapacity, BufferOverflow.DROP_OLDEST)
+            observe { flow.tryEmit(it) }
+            flow.asSharedFlow()
         }
-        return observer
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import behaviorgraph.Event.Companion.NoSequence
+
+internal fun interface ObserverCallback {
+    fun onUpdated(value: Any?, event: Event)
+}
+
+/**
+ * A registered observer returned by [State.observe], [Moment.observe] or [TypedMoment.observe].
+ */
+class Observation internal constructor(private val registry: ObserverRegistry, internal val callback: ObserverCallback) {
+    // slot in the registry, -1 once cancelled
+    internal var index: Int = -1
+
+    /**
+     * True until [cancel] is called.
+     */
+    val isActive: Boolean get() = index >= 0
+
+    /**
+     * Stops calling this observer. Calling it more than once has no effect.
+     */
+    fun cancel() {
+        registry.remove(this)
+    }
+
+    /**
+     * Same as [cancel], for code written when observeUpdates returned the observer's own behavior.
+     */
+    fun removeEarly() {
+        cancel()
+    }
+}
+
+/**
+ * All observers of one resource, served by a single behavior that demands the resource.
+ * When the resource updates the behavior creates one side effect for the event, which calls every observer in the
+ * order they were added. Adding and cancelling an observation does not change any links in the graph.
+ * Cancelled observations leave an empty slot. Slots are compacted before the next dispatch, or right away
+ * once more than half of them are empty.
+ *
+ * Observers are added and cancelled on the graph's thread, such as during setup or inside actions and side effects.
+ *
+ * Flows from [State.asStateFlow], [Moment.asFlow] and [TypedMoment.asFlow] are published by an ordinary observation
+ * in this registry, so asking for one does not add to the graph and resources cache them to hand out again.
+ * [Resource.reset] drops the registry with every observation in it, so resources clear those caches when they reset.
+ */
+internal class ObserverRegistry(private val resource: Resource, private val capture: () -> Any?) {
+    private val observations: ArrayList<Observation?> = ArrayList()
+    private var active = 0
+    private var dispatching = false
+
+    val activeCount: Int get() = active
+
+    init {
+        @Suppress("UNCHECKED_CAST")
+        val extent = resource.extent as Extent<Any>
+        val dispatcher = extent.behavior()
+            .demands(resource)
+            .runs { _ ->
+                val event = resource.graph.currentEvent
+                if (active > 0 && event != null && resource.internalJustUpdated) {
+                    val value = capture()
+                    extent.sideEffect("Observers") {
+                        dispatch(value, event)
+                    }
+                }
+            }
+        if (extent.addedToGraphWhen != NoSequence) {
+            dispatcher.addLate()
+        }
+    }
+
+    fun add(callback: ObserverCallback): Observation {
+        val observation = Observation(this, callback)
+        observation.index = observations.size
+        observations.add(observation)
+        active++
+        return observation
+    }
+
+    fun remove(observation: Observation) {
+        val index = observation.index
+        if (index < 0) {
+            return
+        }
+        observations[index] = null
+        observation.index = -1
+        active--
+        // slots emptied while dispatching are compacted before the next dispatch
+        if (!dispatching && active * 2 < observations.size) {
+            compact()
+        }
+    }
+
+    private fun dispatch(value: Any?, event: Event) {
+        if (active < observations.size) {
+            compact()
+        }
+        // observers added while dispatching start with the next update
+        val count = observations.size
+        dispatching = true
+        try {
+            for (i in 0 until count) {
+                observations[i]?.callback?.onUpdated(value, event)
+            }
+        } finally {
+            dispatching = false
+        }
+    }
+
+    private fun compact() {
+        var next = 0
+        for (i in 0 until observations.size) {
+            val observation = observations[i]
+            if (observation != null) {
+                observation.index = next
+                observations[next] = observation
+                next++
+            }
+        }
+        while (observations.size > next) {
+            observations.removeAt(observations.size - 1)
+        }
+    }
+
+    // an extent reused from a pool starts without observers or a registry
+    fun clear() {
+        for (observation in observations) {
+            observation?.index = -1
+        }
+        observations.clear()
+        active = 0
+    }
+
+    // the behavior is counted with its extent
+    fun estimatedBytes(): Long = FootprintEstimate.list(observations.size) + OBSERVATION_BYTES * active
+
+    companion object {
+        private const val OBSERVATION_BYTES = 40L
+    }
+}
@@ -9,4 +9,39 @@ internal interface PlatformSpecific {
     fun setCurrentThread(state: EventLoopState)
     fun runningOnCurrentThread(state: EventLoopState?): Boolean
     fun defaultNameForExtent(extent: Extent<*>): String
-}
\ No newline at end of file
+    fun makeAtomicCounter(): AtomicCounter
+
+    /**
+     * Storage for doubles outside the managed heap, or null if the platform doesn't support it.
+     */
+    fun makeOffHeapDoubleStorage(size: Int): DoubleStorage?
+
+    /**
+     * Reference that does not keep [referent] from being garbage collected.
+     */
+    fun makeWeakReference(referent: Any): WeakReference
+
+    /**
+     * True if [function] holds a [Graph], [Extent], [Resource], [Behavior] or [context] in one of its own fields,
+     * as a lambda does with the values it captures. Platforms that can't look inside functions return null.
+     */
+    fun capturesGraphObject(function: Any, context: Any?): Boolean?
+}
+
+internal interface AtomicCounter {
+    fun getAndIncrement(): Int
+    fun get(): Int
+}
+
+internal interface WeakReference {
+    /**
+     * The referent, or null once it has been collected.
+     */
+    fun get(): Any?
+}
+
+internal interface DoubleStorage {
+    val size: Int
+    operator fun get(index: Int): Double
+    operator fun set(index: Int, value: Double)
+}
@@ -17,16 +17,34 @@ import kotlin.js.JsName
  */
 open class Resource @JvmOverloads constructor(val extent: Extent<*>, @JsName("debugName") var debugName: String? = null): Linkable {
     val graph: Graph = extent.graph
+
+    /**
+     * Dense identifier assigned by the [Graph] while the resource's extent is in the graph, -1 otherwise.
+     * Resource ids start at 0 and the ids of removed resources are given to ones added later.
+     */
+    var id: Int = -1
+        internal set
     @JsName("__bg_isResource") val isResource: Boolean = true // field for javascript based reflection
-    internal var subsequents: MutableSet<Behavior<*>> = mutableSetOf()
+    internal var subsequents: CompactSet<Behavior<*>> = CompactSet()
+    private var observers: ObserverRegistry? = null
+    internal val observerCount: Int get() = observers?.activeCount ?: 0
     var suppliedBy: Behavior<*>? = null
-        internal set
+        internal set(value) {
+            field = value
+            supplierChanged()
+        }
 
     override val resource get() = this
     override val type get() = LinkType.Reactive
 
+    // resources that are supplied along with another one, such as map keys, are reached through that resource
+    // with [forEachDependentResource] instead of being kept in their extent
+    internal open val belongsToExtent: Boolean get() = true
+
     init {
-        extent.addResource(this)
+        if (belongsToExtent) {
+            extent.addResource(this)
+        }
     }
 
     @get:JvmName("order")
@@ -34,6 +52,61 @@ open class Resource @JvmOverloads constructor(val extent: Extent<*>, @JsName("de
 
     internal open val internalJustUpdated: Boolean get() = false
 
+    /**
+     * Called when the supplying behavior changes so resources derived from this one can follow it.
+     */
+    internal open fun supplierChanged() {}
+
+    /**
+     * Called at the end of an event in which this resource was passed to [Graph.releaseAtEndOfEvent].
+     */
+    internal open fun releasePayload() {}
+
+    /**
+     * Calls [block] with each resource that is supplied along with this one without being linked as a supply,
+     * such as the key resources of a [MapState]. Behaviors demanding them are reordered with this resource's supplier.
+     */
+    internal open fun forEachDependentResource(block: (Resource) -> Unit) {}
+
+    /**
+     * Called after a behavior starts demanding this resource.
+     */
+    internal open fun demandAdded() {}
+
+    /**
+     * Called after a behavior stops demanding this resource.
+     */
+    internal open fun demandRemoved() {}
+
+    /**
+     * Approximate bytes held by this resource for [Graph.footprint].
+     * Subclasses add the storage they own.
+     */
+    internal open fun estimatedBytes(): Long {
+        return FootprintEstimate.RESOURCE_BYTES + subsequents.estimatedBytes() + (observers?.estimatedBytes() ?: 0)
+    }
+
+    /**
+     * Returns this resource to how it was when created so its extent can be reused by an [ExtentPool].
+     * Subclasses also restore their initial values.
+     */
+    internal open fun reset() {
+        subsequents.clear()
+        suppliedBy = null
+        // the registry's behavior may have been dropped with the extent's other late behaviors
+        observers?.clear()
+        observers = null
+    }
+
+    /**
+     * Registers [callback] with this resource's [ObserverRegistry], creating it on first use.
+     * [capture] reads the value passed to observers and is called from the registry's behavior.
+     */
+    internal fun addObserver(capture: () -> Any?, callback: ObserverCallback): Observation {
+        val registry = observers ?: ObserverRegistry(this, capture).also { observers = it }
+        return registry.add(callback)
+    }
+
     internal fun assertValidUpdater() {
         val currentBehavior = graph.currentBehavior
         val currentEvent = graph.currentEvent
@@ -60,7 +133,7 @@ open class Resource @JvmOverloads constructor(val extent: Extent<*>, @JsName("de
         // allow access to state from alternate threads while running
         if (!graph.platformSpecific.runningOnCurrentThread(graph.eventLoopState)) { return }
         val currentBehavior = graph.currentBehavior
-        if (currentBehavior != null && currentBehavior != suppliedBy && !(currentBehavior.demands?.contains(this) ?: false)) {
+        if (currentBehavior != null && currentBehavior != suppliedBy && !graph.currentBehaviorDemands(this)) {
             graph.bgassert(false) {
                 "Cannot access the value or event of a resource inside a behavior unless it is supplied or demanded. \nResource=$this \nAccessing Behavior=$currentBehavior"
             }
@@ -0,0 +1,17 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+/**
+ * A manual hook for naming the resources of an extent (or extent context) class, and its subclasses, in place of
+ * reflection when their instances are added to the graph. Register one with [Graph.registerResourceNamer].
+ * Namers are written by hand, nothing generates them. A namer avoids the reflection cost and still names resources
+ * where reflection is restricted, such as under strict module settings or in native images.
+ */
+fun interface ResourceNamer<in T : Any> {
+    /**
+     * Give each resource of [focus] that has no debugName a name, typically the name of the property holding it.
+     */
+    fun nameResources(focus: T)
+}
@@ -0,0 +1,78 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.jvm.JvmName
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A State resource holding a set that is changed in place. Iteration follows insertion order.
+ * Each mutation that changes membership is recorded, so [justAdded] and [justRemoved] describe what
+ * changed during the current event. Adding an element that is already present, or removing one
+ * that is not, does not update the resource.
+ * A behavior must supply this resource in order to change it.
+ */
+class SetState<E> @JvmOverloads constructor(extent: Extent<*>, initialItems: Collection<E> = emptyList(), debugName: String? = null) :
+    CollectionState<E>(extent, debugName) {
+    private val items: LinkedHashSet<E> = LinkedHashSet(initialItems)
+    // for reset, see CollectionState
+    private val initialItems: List<E> = if (initialItems.isEmpty()) emptyList() else ArrayList(items)
+
+    /**
+     * The current set. It is a live read only view, do not hold onto it across events.
+     * A behavior must demand this resource in order to access this property.
+     */
+    @get:JvmName("value")
+    val value: Set<E>
+        get() {
+            assertValidAccessor()
+            return items
+        }
+
+    fun add(element: E): Boolean {
+        if (items.contains(element) || !beginChange()) {
+            return false
+        }
+        items.add(element)
+        addedLog.add(element)
+        return true
+    }
+
+    fun addAll(elements: Collection<E>) {
+        for (element in elements) {
+            add(element)
+        }
+    }
+
+    fun remove(element: E): Boolean {
+        if (!items.contains(element) || !beginChange()) {
+            return false
+        }
+        items.remove(element)
+        removedLog.add(element)
+        return true
+    }
+
+    /**
+     * Removes every element.
+     */
+    fun removeAll() {
+        if (items.isNotEmpty() && beginChange()) {
+            removedLog.addAll(items)
+            items.clear()
+        }
+    }
+
+    override fun snapshotValue(): Any? = items.toSet()
+
+    override fun estimatedBytes(): Long = super.estimatedBytes() + FootprintEstimate.hashed(items.size)
+
+    override fun reset() {
+        super.reset()
+        items.clear()
+        items.addAll(initialItems)
+    }
+
+    override fun toString(): String = describe(items)
+}
@@ -3,8 +3,10 @@
 //
 package behaviorgraph
 
-import behaviorgraph.Event.Companion.InitialEvent
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
 
 import kotlin.jvm.JvmOverloads
 import kotlin.jvm.JvmName
@@ -12,12 +14,27 @@ import kotlin.jvm.JvmName
 /**
  * A State is a type of resource for storing information over a period of time. Its value will persist into the future until it is updated.
  * All States must be given an initial value when created.
+ * The [equality] decides when [update] is skipped because the new value is the same as the current one.
  */
-class State<T> @JvmOverloads constructor(extent: Extent<*>, initialState: T, debugName: String? = null) :
-    Resource(extent, debugName),
-    Transient {
-    private var currentState = StateHistory(initialState, InitialEvent)
-    internal var priorStateDuringEvent: StateHistory<T>? = null
+class State<T> @JvmOverloads constructor(
+    extent: Extent<*>,
+    initialState: T,
+    debugName: String? = null,
+    val equality: StateEquality<T> = StateEquality.structural()
+) :
+    AbstractState(extent, debugName) {
+    // Values are double buffered in place so updates don't allocate.
+    // The prior slot only matters while updatedThisEvent is true.
+    // It points back at the current value once the event ends so the old value isn't kept reachable.
+    private val initialValue: T = initialState
+    private var currentValue: T = initialState
+    private var priorValue: T = initialState
+    // With byVersion equality the current value may be the same instance as the new one after being changed in place,
+    // so updates are compared with the version that was last propagated instead.
+    private val versionEquality: VersionEquality<T>? = equality as? VersionEquality<T>
+    private val initialVersion: Long = versionEquality?.version?.invoke(initialState) ?: 0
+    private var propagatedVersion: Long = initialVersion
+    private var stateFlow: StateFlow<T>? = null
 
     /**
      * The current underlying value.
@@ -27,22 +44,9 @@ class State<T> @JvmOverloads constructor(extent: Extent<*>, initialState: T, deb
     val value: T
         get() {
             assertValidAccessor()
-            return currentState.value
+            return currentValue
         }
 
-    /**
-     * The last time the State was updated. Will return [Event.InitialEvent] for its initial value before it has been updated.
-     * A behavior must demand this State resource in order to access this property.
-     */
-    @get:JvmName("event")
-    val event: Event
-        get() {
-            assertValidAccessor()
-            return currentState.event
-        }
-    private val trace: StateHistory<T>
-        get() = priorStateDuringEvent ?: currentState
-
     /**
      * What was the value of the value property at the beginning of the current event.
      * If this resource has justUpdated it will return the previous value.
@@ -50,17 +54,7 @@ class State<T> @JvmOverloads constructor(extent: Extent<*>, initialState: T, deb
      */
     @get:JvmName("traceValue")
     val traceValue: T
-        get() = trace.value
-
-    /**
-     * What was the `event` property at the beginning of the current event.
-     * If this resource has justUpdated it will return the previous event.
-     * Otherwise it will return the current event.
-     */
-    @get:JvmName("traceEvent")
-    val traceEvent: Event
-        get() = trace.event
-
+        get() = if (updatedThisEvent) priorValue else currentValue
 
     /**
      * Create a new action and call [update].
@@ -72,12 +66,17 @@ class State<T> @JvmOverloads constructor(extent: Extent<*>, initialState: T, deb
 
     /**
      * Mark this State resource as updated, associate a value with that update and activate any dependent behaviors.
-     * If the newValue is `==` to the current value, then the State resource will not update or activate the dependent
-     * behavior.
+     * If the newValue is equal to the current value according to [equality], then the State resource will not
+     * update or activate the dependent behavior.
      * A behavior must supply this resource in order to update it.
      */
     fun update(newValue: T) {
-        if (newValue == currentState.value) {
+        val versions = versionEquality
+        if (versions != null) {
+            if (versions.version(newValue) == propagatedVersion) {
+                return
+            }
+        } else if (equality.isEqual(currentValue, newValue)) {
             return
         }
         updateForce(newValue)
@@ -90,47 +89,24 @@ class State<T> @JvmOverloads constructor(extent: Extent<*>, initialState: T, deb
      * A behavior must supply this resource in order to update it.
      */
     fun updateForce(newValue: T) {
-        assertValidUpdater()
-        val thisSequence = graph.currentEvent?.sequence ?: 0
-        if (graph.currentEvent != null && currentState.event.sequence < thisSequence) {
-            // this check prevents updating priorState if we are updated multiple times in same behavior
-            priorStateDuringEvent = currentState
-        }
-
-        this.graph.currentEvent?.let {
-            currentState = StateHistory(newValue, it)
+        applyUpdate {
+            currentValue = newValue
+            versionEquality?.let { propagatedVersion = it.version(newValue) }
         }
-        this.graph.resourceTouched(this)
-        this.graph.trackTransient(this)
     }
 
-    /**
-     * Is there a current event and was this resource updated during this event.
-     * A behavior must demand this resource to access this property.
-     */
-    @get:JvmName("justUpdated")
-    val justUpdated: Boolean
-        get() {
-            assertValidAccessor()
-            return currentState.event == graph.currentEvent
-        }
-
-    override val internalJustUpdated: Boolean get() = justUpdated
-
     /**
      * Checks if [justUpdated] and if the associated value is `==` to the passed in value.
      */
     fun justUpdatedTo(toValue: T): Boolean {
-        return justUpdated &&
-                (currentState.value == toValue)
+        return justUpdatedAnd(currentValue == toValue)
     }
 
     /**
      * Checks if [justUpdated] and if the previous value is `==` to the passed in value.
      */
     fun justUpdatedFrom(fromValue: T): Boolean {
-        return justUpdated &&
-                (priorStateDuringEvent?.value == fromValue)
+        return justUpdatedAnd(priorValue == fromValue)
     }
 
     /**
@@ -140,33 +116,63 @@ class State<T> @JvmOverloads constructor(extent: Extent<*>, initialState: T, deb
         return justUpdatedTo(toValue) && justUpdatedFrom(fromValue)
     }
 
-    override fun clear() {
-        priorStateDuringEvent = null
+    override fun savePriorValue() {
+        priorValue = currentValue
+        graph.releaseAtEndOfEvent(this)
     }
 
-    override fun toString(): String {
-        val localDebugName = debugName ?: ""
-        val localType = super.toString()
-        val localValue = currentState.value
-        val localSequence = currentState.event.sequence
-        val string = "$localDebugName $localType == $localValue ($localSequence)"
-        return string
+    override fun releasePayload() {
+        priorValue = currentValue
     }
 
-    internal data class StateHistory<T>(val value: T, val event: Event)
+    override fun snapshotValue(): Any? = currentValue
 
-    fun observeUpdates(onUpdated: (T) -> Unit): Behavior<*> {
-        val extent = this.extent as Extent<Any>
-        val observer = extent.behavior()
-            .demands(this)
-            .runs { _ ->
-                this.extent.sideEffect {
-                    onUpdated(this.value)
-                }
-            }
-        if (this.extent.addedToGraphWhen != null) {
-            this.extent.graph.addLateBehavior(observer)
+    // current, prior and initial values, the equality and the versions
+    override fun estimatedBytes(): Long = super.estimatedBytes() + 36
+
+    override fun reset() {
+        super.reset()
+        currentValue = initialValue
+        priorValue = initialValue
+        propagatedVersion = initialVersion
+        // see ObserverRegistry
+        stateFlow = null
+    }
+
+    override fun toString(): String = describe(currentValue)
+
+    /**
+     * Same as [observe]. Call [Observation.removeEarly] or [Observation.cancel] on the result to stop observing.
+     */
+    fun observeUpdates(onUpdated: (T) -> Unit): Observation {
+        return observe(onUpdated)
+    }
+
+    /**
+     * Calls [onUpdated] with the new value at the end of each event that updates this state.
+     * All observers of a state share one behavior and one side effect per event, see [ObserverRegistry].
+     * Call [Observation.cancel] to stop observing.
+     * Add and cancel observers on the graph's thread, such as during setup or inside an action or side effect.
+     */
+    fun observe(onUpdated: (T) -> Unit): Observation {
+        return addObserver({ currentValue }) { value, _ ->
+            @Suppress("UNCHECKED_CAST")
+            onUpdated(value as T)
         }
-        return observer
+    }
+
+    /**
+     * A StateFlow that follows this state's value.
+     * The value is published at the end of each event that updates this state, so collectors never see a value
+     * from partway through an event. Collectors run on their own dispatcher instead of the graph's thread and
+     * only see the latest value if they fall behind.
+     * Every call returns the same flow, see [ObserverRegistry] for how it is published.
+     * Call it on the graph's thread like [observe].
+     */
+    fun asStateFlow(): StateFlow<T> {
+        stateFlow?.let { return it }
+        val flow = MutableStateFlow(traceValue)
+        observe { flow.value = it }
+        return flow.asStateFlow().also { stateFlow = it }
     }
 }
@@ -0,0 +1,52 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.jvm.JvmStatic
+
+/**
+ * Decides whether a new value passed to [State.update] is the same as the current one.
+ * When it is, the update is dropped and dependent behaviors are not activated.
+ * Choose the cheapest check that is correct for the kind of value the State holds.
+ */
+fun interface StateEquality<in T> {
+    fun isEqual(current: T, new: T): Boolean
+
+    companion object {
+        private val Structural = StateEquality<Any?> { current, new -> current == new }
+        private val Identity = StateEquality<Any?> { current, new -> current === new }
+        private val Never = StateEquality<Any?> { _, _ -> false }
+
+        /**
+         * Compare with `==`. This is the default.
+         */
+        @JvmStatic
+        fun structural(): StateEquality<Any?> = Structural
+
+        /**
+         * Compare with `===`. Useful for large immutable values where `equals` is expensive.
+         */
+        @JvmStatic
+        fun identity(): StateEquality<Any?> = Identity
+
+        /**
+         * Never equal, so every update propagates.
+         * Use this for mutable values that are updated with the same instance after being changed.
+         */
+        @JvmStatic
+        fun never(): StateEquality<Any?> = Never
+
+        /**
+         * Compare a version stamp taken from each value, for values that carry their own revision number.
+         * A State using this remembers the version it last propagated and compares the new value's version with that,
+         * so a mutable value that bumps its version when changed can be updated with the same instance.
+         */
+        @JvmStatic
+        fun <T> byVersion(version: (T) -> Long): StateEquality<T> = VersionEquality(version)
+    }
+}
+
+internal class VersionEquality<in T>(val version: (T) -> Long) : StateEquality<T> {
+    override fun isEqual(current: T, new: T): Boolean = version(current) == version(new)
+}
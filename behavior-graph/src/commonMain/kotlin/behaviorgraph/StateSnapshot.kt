@@ -0,0 +1,115 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import behaviorgraph.Event.Companion.NoSequence
+import kotlin.jvm.JvmName
+import kotlin.jvm.Volatile
+
+/**
+ * An immutable copy of the values of a set of states as of the end of one event.
+ * It is produced by a [StateSnapshotPublisher] and can be read from any thread.
+ * Collection states are copied, so later changes to them are not visible here.
+ * @property sequence The sequence of the event these values come from.
+ */
+class StateSnapshot internal constructor(
+    val sequence: Long,
+    private val indexes: Map<AbstractState, Int>,
+    private val values: Array<Any?>
+) {
+    private fun valueOf(state: AbstractState): Any? {
+        val index = indexes[state]
+        if (index == null) {
+            state.graph.bgassert(false) {
+                "State is not included in this snapshot. \nState=$state"
+            }
+        }
+        return values[index!!]
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun <T> get(state: State<T>): T = valueOf(state) as T
+
+    operator fun get(state: IntState): Int = valueOf(state) as Int
+
+    operator fun get(state: LongState): Long = valueOf(state) as Long
+
+    operator fun get(state: DoubleState): Double = valueOf(state) as Double
+
+    operator fun get(state: BooleanState): Boolean = valueOf(state) as Boolean
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun <E> get(state: ListState<E>): List<E> = valueOf(state) as List<E>
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun <E> get(state: SetState<E>): Set<E> = valueOf(state) as Set<E>
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun <K, V> get(state: MapState<K, V>): Map<K, V> = valueOf(state) as Map<K, V>
+
+    override fun toString(): String = "StateSnapshot ($sequence)"
+}
+
+/**
+ * A StateSnapshotPublisher lets threads outside the graph read several states consistently without creating an action.
+ *
+ * Reading [State.value] from another thread while an event is running can see some states before the event
+ * and others after it. The publisher instead copies the values of [states] into a [StateSnapshot] at the end of
+ * every event that changes one of them. Readers get the latest copy from [snapshot] without locking,
+ * and all the values in it come from the same event.
+ *
+ * The publisher's behavior belongs to [extent] and demands [states], so they must be in the same extent or in one
+ * with a compatible lifetime. Publishing starts once the extent is added to the graph, or with the next event
+ * if it has already been added.
+ *
+ * Example:
+ * ```kotlin
+ * val publisher = StateSnapshotPublisher(cart, listOf(cart.items, cart.total))
+ * ...
+ * // on any thread
+ * val snapshot = publisher.snapshot
+ * render(snapshot[cart.items], snapshot[cart.total])
+ * ```
+ */
+class StateSnapshotPublisher(extent: Extent<*>, states: List<AbstractState>) {
+    constructor(extent: Extent<*>, vararg states: AbstractState) : this(extent, states.toList())
+
+    private val states: Array<AbstractState> = states.toTypedArray()
+    private val indexes: Map<AbstractState, Int> = HashMap<AbstractState, Int>().apply {
+        states.forEachIndexed { index, state -> put(state, index) }
+    }
+
+    @Volatile
+    private var latest: StateSnapshot = capture(extent.graph.lastEvent.sequence)
+
+    /**
+     * The most recently published snapshot. Before the first event it holds the states' initial values.
+     */
+    @get:JvmName("snapshot")
+    val snapshot: StateSnapshot
+        get() = latest
+
+    init {
+        @Suppress("UNCHECKED_CAST")
+        val publishing = (extent as Extent<Any>).behavior()
+            .demands(states + extent.didAdd)
+            .runs {
+                // values are final once every demanded state has updated, so copy them after the event's behaviors
+                extent.graph.sideEffect("Publish Snapshot") {
+                    latest = capture(extent.graph.currentSequence)
+                }
+            }
+        if (extent.addedToGraphWhen != NoSequence) {
+            publishing.addLate()
+        }
+    }
+
+    private fun capture(sequence: Long): StateSnapshot {
+        val values = arrayOfNulls<Any?>(states.size)
+        for (i in states.indices) {
+            values[i] = states[i].snapshotValue()
+        }
+        return StateSnapshot(sequence, indexes, values)
+    }
+}
@@ -1,8 +0,0 @@
-//
-// Copyright Yahoo 2021
-//
-package behaviorgraph
-
-internal interface Transient {
-    fun clear()
-}
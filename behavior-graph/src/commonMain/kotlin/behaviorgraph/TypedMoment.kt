@@ -1,5 +1,9 @@
 package behaviorgraph
 
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
 import kotlin.jvm.JvmOverloads
 import kotlin.jvm.JvmName
 
@@ -11,10 +15,17 @@ import kotlin.jvm.JvmName
  * it is no longer relevant.
  * Use [Moment] if you have no additional information.
  */
-class TypedMoment<T> @JvmOverloads constructor(extent: Extent<*>, debugName: String? = null): Resource(extent, debugName),
-    Transient {
+class TypedMoment<T> @JvmOverloads constructor(extent: Extent<*>, debugName: String? = null): Resource(extent, debugName) {
+    @Deprecated("TypedMoment no longer allocates a Happened per update; use value and event instead.")
     data class Happened<T>(val value: T, val event: Event)
-    private var _happened: Happened<T>? = null
+
+    // Reused between updates so firing the moment doesn't allocate.
+    // The moment has happened when happenedEvent is the current event; value may legitimately be null.
+    // Both are released at the end of the event so the value isn't kept reachable.
+    private var happenedValue: T? = null
+    private var happenedEvent: Event? = null
+    private val happenedThisEvent: Boolean get() = happenedEvent != null && happenedEvent === graph.currentEvent
+    private var valueFlows: HashMap<Int, SharedFlow<T>>? = null
     /**
      * Is there a current event and if the moment updated then what is the associated data.
      * Will return null if the moment did not update this event.
@@ -27,7 +38,7 @@ class TypedMoment<T> @JvmOverloads constructor(extent: Extent<*>, debugName: Str
     val value: T?
         get() {
             assertValidAccessor()
-            return this._happened?.value
+            return if (happenedThisEvent) this.happenedValue else null
         }
 
     /**
@@ -38,7 +49,7 @@ class TypedMoment<T> @JvmOverloads constructor(extent: Extent<*>, debugName: Str
     val event: Event?
         get() {
             assertValidAccessor()
-            return this._happened?.event
+            return if (happenedThisEvent) this.happenedEvent else null
         }
 
 
@@ -57,21 +68,20 @@ class TypedMoment<T> @JvmOverloads constructor(extent: Extent<*>, debugName: Str
     fun update(value: T) {
         assertValidUpdater()
         graph.currentEvent?.let {
-            _happened = Happened(value, it)
+            if (happenedEvent !== it) {
+                graph.releaseAtEndOfEvent(this)
+            }
+            happenedValue = value
+            happenedEvent = it
             graph.resourceTouched(this)
-            graph.trackTransient(this)
         }
     }
 
-    override fun clear() {
-        _happened = null
-    }
-
     override fun toString(): String {
         val localDebugName = debugName ?: ""
         val localType = super.toString()
-        val localUpdated = _happened?.value ?: "NA"
-        val localSequence = _happened?.event?.sequence ?: "NA"
+        val localUpdated = if (happenedThisEvent) happenedValue else "NA"
+        val localSequence = if (happenedThisEvent) happenedEvent?.sequence else "NA"
         return "$localDebugName $localType == $localUpdated ($localSequence)"
     }
 
@@ -82,32 +92,71 @@ class TypedMoment<T> @JvmOverloads constructor(extent: Extent<*>, debugName: Str
     @get:JvmName("justUpdated")
     val justUpdated: Boolean get() {
         assertValidAccessor()
-        return _happened != null
+        return happenedThisEvent
     }
 
     override val internalJustUpdated: Boolean get() = justUpdated
 
+    override fun releasePayload() {
+        happenedValue = null
+        happenedEvent = null
+    }
+
+    override fun reset() {
+        super.reset()
+        releasePayload()
+        // see ObserverRegistry
+        valueFlows = null
+    }
+
     /**
      * Checks if [justUpdated] and if the associated value is `==` to the passed in value.
      */
     fun justUpdatedTo(value: T): Boolean {
-        return this.justUpdated && this._happened?.value == value
+        return this.justUpdated && this.happenedValue == value
     }
 
-    fun observeUpdates(onUpdated: (Pair<T, Event>) -> Unit): Behavior<*> {
-        val extent = this.extent as Extent<Any>
-        val observer = extent.behavior()
-            .demands(this)
-            .runs { _ ->
-                this._happened?.let { happened ->
-                    this.extent.sideEffect {
-                        onUpdated(Pair(happened.value, happened.event))
-                    }
-                }
-            }
-        if (this.extent.addedToGraphWhen != null) {
-            this.extent.graph.addLateBehavior(observer)
+    /**
+     * Like [observe] but passes the value and event as a pair.
+     * Call [Observation.removeEarly] or [Observation.cancel] on the result to stop observing.
+     */
+    fun observeUpdates(onUpdated: (Pair<T, Event>) -> Unit): Observation {
+        return observe { value, event -> onUpdated(Pair(value, event)) }
+    }
+
+    /**
+     * Same as [observe].
+     */
+    fun observeValueUpdates(onUpdated: (T, Event) -> Unit): Observation {
+        return observe(onUpdated)
+    }
+
+    /**
+     * Calls [onUpdated] with the value and event at the end of each event in which this moment updates.
+     * All observers of a moment share one behavior and one side effect per event, see [ObserverRegistry].
+     * Call [Observation.cancel] to stop observing.
+     */
+    fun observe(onUpdated: (T, Event) -> Unit): Observation {
+        return addObserver({ happenedValue }) { value, event ->
+            @Suppress("UNCHECKED_CAST")
+            onUpdated(value as T, event)
+        }
+    }
+
+    /**
+     * A Flow that emits the value each time this moment updates.
+     * Values are emitted at the end of the event and never wait on collectors, which run on their own dispatcher.
+     * A collector that falls more than [bufferCapacity] values behind misses the oldest ones.
+     * Calls with the same [bufferCapacity] return the same flow, see [ObserverRegistry] for how it is published.
+     * Call it on the graph's thread like [observe].
+     */
+    @JvmOverloads
+    fun asFlow(bufferCapacity: Int = 64): SharedFlow<T> {
+        val flows = valueFlows ?: HashMap<Int, SharedFlow<T>>(2).also { valueFlows = it }
+        return flows.getOrPut(bufferCapacity) {
+            val flow = MutableSharedFlow<T>(0, bufferCapacity, BufferOverflow.DROP_OLDEST)
+            observe { value, _ -> flow.tryEmit(value) }
+            flow.asSharedFlow()
         }
-        return observer
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class AccumulatingMomentTest : AbstractBehaviorGraphTest() {
+    @Test
+    fun collectsEveryValueInAnEvent() {
+        // |> Given an accumulating moment with a demanding behavior
+        val am1 = ext.accumulatingMoment<Int>("am1")
+        var runs = 0
+        var seen: List<Int>? = null
+        ext.behavior()
+            .demands(am1)
+            .runs {
+                runs += 1
+                seen = am1.values.toList()
+            }
+        ext.addToGraphWithAction()
+
+        // |> When it is updated several times in one action
+        g.action {
+            am1.update(1)
+            am1.update(2)
+            am1.updateAll(listOf(3, 4))
+        }
+
+        // |> Then the behavior runs once and sees all values in order
+        assertEquals(1, runs)
+        assertEquals(listOf(1, 2, 3, 4), seen)
+    }
+
+    @Test
+    fun valuesAreClearedAfterEvent() {
+        // |> Given an accumulating moment in the graph
+        val am1 = ext.accumulatingMoment<String>("am1")
+        ext.addToGraphWithAction()
+
+        // |> When it is updated
+        am1.updateWithAction("a")
+
+        // |> Then its values are gone after the event
+        assertFalse(am1.justUpdated)
+        assertNull(am1.event)
+        assertTrue(am1.values.isEmpty())
+
+        // |> And a later event only sees its own values
+        var seen: List<String>? = null
+        g.action {
+            am1.update("b")
+            g.sideEffect {
+                seen = am1.values.toList()
+            }
+        }
+        assertEquals(listOf("b"), seen)
+    }
+
+    @Test
+    fun suppliedMomentCanBeUpdatedBySupplier() {
+        // |> Given a behavior that fans a moment out into many values
+        val mr1 = ext.moment("mr1")
+        val am1 = ext.accumulatingMoment<Int>("am1")
+        ext.behavior()
+            .supplies(am1)
+            .demands(mr1)
+            .runs {
+                for (i in 0 until 100) {
+                    am1.update(i)
+                }
+            }
+        var sum = 0
+        ext.behavior()
+            .demands(am1)
+            .runs {
+                sum = am1.values.sum()
+            }
+        ext.addToGraphWithAction()
+
+        // |> When the supplier runs
+        mr1.updateWithAction()
+
+        // |> Then the demanding behavior sees them all
+        assertEquals(4950, sum)
+    }
+
+    @Test
+    fun checkUpdateOutsideEventIsAnError() {
+        val am1 = ext.accumulatingMoment<Int>("am1")
+        assertFails {
+            am1.update(1)
+        }
+    }
+}
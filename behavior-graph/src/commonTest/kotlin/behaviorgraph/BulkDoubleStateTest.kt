@@ -0,0 +1,186 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class BulkDoubleStateTest : AbstractBehaviorGraphTest() {
+    @Test
+    fun tracksChangedIndices() {
+        // |> Given a bulk state with a demanding behavior
+        val bs1 = ext.bulkDoubleState(1000, 1.0, "bs1")
+        var changed: List<Int>? = null
+        var sum = 0.0
+        ext.behavior()
+            .demands(bs1)
+            .runs {
+                val indices = mutableListOf<Int>()
+                for (n in 0 until bs1.justUpdatedCount) {
+                    val index = bs1.justUpdatedIndex(n)
+                    indices.add(index)
+                    sum += bs1[index]
+                }
+                changed = indices
+            }
+        ext.addToGraphWithAction()
+
+        // |> When some values change, one twice and one to the same value
+        g.action {
+            bs1.update(700, 2.0)
+            bs1.update(3, 4.0)
+            bs1.update(700, 5.0)
+            bs1.update(10, 1.0)
+        }
+
+        // |> Then only the distinct changed indices are visited
+        assertEquals(listOf(700, 3), changed)
+        assertEquals(9.0, sum)
+        assertEquals(5.0, bs1[700])
+        assertEquals(1.0, bs1[999])
+        // and changes don't appear after the event
+        assertFalse(bs1.justUpdated)
+        assertFalse(bs1.justUpdated(700))
+        assertEquals(0, bs1.justUpdatedCount)
+    }
+
+    @Test
+    fun changesFromEarlierEventsAreForgotten() {
+        // |> Given a bulk state updated in one event
+        val bs1 = ext.bulkDoubleState(100, debugName = "bs1", offHeap = true)
+        ext.addToGraphWithAction()
+        bs1.updateWithAction(64, 1.0)
+
+        // |> When a different index is updated in the next event
+        var changed: List<Int>? = null
+        var was64 = true
+        g.action {
+            bs1.update(65, 1.0)
+            g.sideEffect {
+                changed = (0 until bs1.justUpdatedCount).map { bs1.justUpdatedIndex(it) }
+                was64 = bs1.justUpdated(64)
+            }
+        }
+
+        // |> Then only that event's change is reported
+        assertEquals(listOf(65), changed)
+        assertFalse(was64)
+        assertEquals(1.0, bs1[64])
+    }
+
+    @Test
+    fun elementDemandsOnlyActivateForThatIndex() {
+        // |> Given behaviors demanding single elements of a supplied bulk state
+        val tm1 = ext.typedMoment<Int>("tm1")
+        val bs1 = ext.bulkDoubleState(10, debugName = "bs1")
+        var runs0 = 0
+        var runs1 = 0
+        var seen = 0.0
+        ext.behavior()
+            .demands(bs1.element(0))
+            .runs {
+                runs0 += 1
+                seen = bs1.element(0).value
+            }
+        ext.behavior()
+            .demands(bs1.element(1))
+            .runs {
+                runs1 += 1
+            }
+        ext.behavior()
+            .supplies(bs1)
+            .demands(tm1)
+            .runs {
+                bs1.update(tm1.value!!, 3.0)
+            }
+        ext.addToGraphWithAction()
+
+        // |> When the supplier changes one index
+        tm1.updateWithAction(0)
+
+        // |> Then only the element for that index runs and sees the new value
+        assertEquals(1, runs0)
+        assertEquals(0, runs1)
+        assertEquals(3.0, seen)
+    }
+
+    @Test
+    fun elementDemandsAreReorderedWithBulkSupplier() {
+        // |> Given an element behavior ordered after its bulk state's supplier
+        val bs1 = ext.bulkDoubleState(10, debugName = "bs1")
+        val longer = ext.state(0L, "longer")
+        var seen = 0.0
+        val elementBehavior = ext.behavior()
+            .demands(bs1.element(2))
+            .runs {
+                seen = bs1.element(2).value
+            }
+        val supplier = ext.behavior()
+            .supplies(bs1)
+            .demands(r_a)
+            .runs {
+                bs1.update(2, r_a.value.toDouble())
+            }
+        ext.behavior()
+            .supplies(longer)
+            .demands(r_b)
+            .runs {
+                longer.update(r_b.value)
+            }
+        ext.addToGraphWithAction()
+
+        // |> When the supplier is reordered after a later behavior
+        g.action {
+            supplier.setDynamicDemands(longer)
+        }
+        r_a.updateWithAction(3)
+
+        // |> Then the element behavior is reordered too and sees the new value
+        assertTrue(elementBehavior.order > supplier.order)
+        assertEquals(3.0, seen)
+    }
+
+    @Test
+    fun elementIsReleasedWhenNoLongerDemanded() {
+        // |> Given an element demanded by a behavior
+        val bs1 = ext.bulkDoubleState(10, debugName = "bs1")
+        var runs = 0
+        val elementBehavior = ext.behavior()
+            .runs {
+                runs += 1
+            }
+        ext.addToGraphWithAction()
+        val element = bs1.element(4)
+        g.action {
+            elementBehavior.setDynamicDemands(element)
+        }
+        assertSame(element, bs1.element(4))
+
+        // |> When nothing demands it anymore
+        g.action {
+            elementBehavior.setDynamicDemands()
+        }
+
+        // |> Then the bulk state lets go of it and its id
+        assertEquals(-1, element.id)
+        assertNotSame(element, bs1.element(4))
+
+        // |> And a released element demanded again still follows changes
+        g.action {
+            elementBehavior.setDynamicDemands(element)
+        }
+        runs = 0
+        g.action {
+            bs1.update(4, 1.0)
+        }
+        assertEquals(1, runs)
+    }
+
+    @Test
+    fun checkUpdateOutsideEventIsAnError() {
+        val bs1 = ext.bulkDoubleState(10, debugName = "bs1")
+        assertFails {
+            bs1.update(1, 1.0)
+        }
+    }
+}
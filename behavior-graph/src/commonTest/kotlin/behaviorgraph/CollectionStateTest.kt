@@ -0,0 +1,321 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class CollectionStateTest : AbstractBehaviorGraphTest() {
+    @Test
+    fun listRecordsChangesDuringEvent() {
+        // |> Given a list state with a demanding behavior
+        val ls1 = ext.listState(listOf("a", "b", "c"), "ls1")
+        var added: List<String>? = null
+        var removed: List<String>? = null
+        ext.behavior()
+            .demands(ls1)
+            .runs {
+                added = ls1.justAdded.toList()
+                removed = ls1.justRemoved.toList()
+            }
+        ext.addToGraphWithAction()
+
+        // |> When it is changed in place
+        g.action {
+            ls1.add("d")
+            ls1.remove("a")
+            ls1.set(0, "x")
+        }
+
+        // |> Then the behavior sees only the changes
+        assertEquals(listOf("x", "c", "d"), ls1.value)
+        assertEquals(listOf("d", "x"), added)
+        assertEquals(listOf("a", "b"), removed)
+        // and the change log is cleared after the event
+        assertTrue(ls1.justAdded.isEmpty())
+        assertTrue(ls1.justRemoved.isEmpty())
+        assertFalse(ls1.justUpdated)
+    }
+
+    @Test
+    fun multipleChangesActivateBehaviorOnce() {
+        // |> Given a list state with a demanding behavior
+        val ls1 = ext.listState<Int>(debugName = "ls1")
+        var runs = 0
+        ext.behavior()
+            .demands(ls1)
+            .runs {
+                runs += 1
+            }
+        ext.addToGraphWithAction()
+
+        // |> When it is changed many times in one event
+        g.action {
+            for (i in 0 until 10) {
+                ls1.add(i)
+            }
+        }
+
+        // |> Then the behavior runs once
+        assertEquals(1, runs)
+        assertEquals(g.lastEvent, ls1.event)
+    }
+
+    @Test
+    fun setIgnoresChangesThatDontAffectMembership() {
+        // |> Given a set state
+        val ss1 = ext.setState(listOf(1, 2), "ss1")
+        ext.addToGraphWithAction()
+        val entered = ss1.event
+
+        // |> When adding existing and removing missing elements
+        g.action {
+            ss1.add(1)
+            ss1.remove(3)
+        }
+
+        // |> Then it doesn't update
+        assertEquals(entered, ss1.event)
+
+        // |> And when membership does change
+        var added: List<Int>? = null
+        var removed: List<Int>? = null
+        g.action {
+            ss1.add(3)
+            ss1.remove(1)
+            g.sideEffect {
+                added = ss1.justAdded.toList()
+                removed = ss1.justRemoved.toList()
+            }
+        }
+
+        // |> Then the change is recorded
+        assertEquals(setOf(2, 3), ss1.value)
+        assertEquals(listOf(3), added)
+        assertEquals(listOf(1), removed)
+    }
+
+    @Test
+    fun mapRecordsChangesByKey() {
+        // |> Given a map state
+        val ms1 = ext.mapState(mapOf("a" to 1, "b" to 2), "ms1")
+        var added: List<String>? = null
+        var removed: List<String>? = null
+        var replaced: List<String>? = null
+        ext.behavior()
+            .demands(ms1)
+            .runs {
+                added = ms1.justAdded.toList()
+                removed = ms1.justRemoved.toList()
+                replaced = ms1.justReplaced.toList()
+            }
+        ext.addToGraphWithAction()
+
+        // |> When entries are inserted, replaced, removed and put unchanged
+        g.action {
+            ms1.put("c", 3)
+            ms1.put("a", 10)
+            ms1.put("b", 2)
+            ms1.remove("b")
+        }
+
+        // |> Then the log has the keys for each kind of change
+        assertEquals(mapOf("a" to 10, "c" to 3), ms1.value)
+        assertEquals(listOf("c"), added)
+        assertEquals(listOf("b"), removed)
+        assertEquals(listOf("a"), replaced)
+        assertTrue(ms1.justReplaced.isEmpty())
+    }
+
+    @Test
+    fun suppliedCollectionIsChangedBySupplier() {
+        // |> Given a set state supplied by a behavior
+        val tm1 = ext.typedMoment<Int>("tm1")
+        val ss1 = ext.setState<Int>(debugName = "ss1")
+        ext.behavior()
+            .supplies(ss1)
+            .demands(tm1)
+            .runs {
+                ss1.add(tm1.value!!)
+            }
+        ext.addToGraphWithAction()
+
+        // |> When changed from an action
+        // |> Then it is an error
+        assertFails {
+            g.action {
+                ss1.add(1)
+            }
+        }
+    }
+
+    @Test
+    fun checkChangeOutsideEventIsAnError() {
+        val ls1 = ext.listState<Int>(debugName = "ls1")
+        assertFails {
+            ls1.add(1)
+        }
+    }
+
+    @Test
+    fun keyDemandsOnlyActivateForThatKey() {
+        // |> Given behaviors demanding individual keys of a map
+        val ms1 = ext.mapState(mapOf("a" to 1, "b" to 2), "ms1")
+        var aRuns = 0
+        var bRuns = 0
+        var aValue: Int? = null
+        ext.behavior()
+            .demands(ms1.key("a"))
+            .runs {
+                aRuns += 1
+                aValue = ms1.key("a").value
+            }
+        ext.behavior()
+            .demands(ms1.key("b"))
+            .runs {
+                bRuns += 1
+            }
+        ext.addToGraphWithAction()
+
+        // |> When only one key changes
+        g.action {
+            ms1.put("a", 10)
+            ms1.put("b", 2)
+        }
+
+        // |> Then only the behavior for that key runs
+        assertEquals(1, aRuns)
+        assertEquals(0, bRuns)
+        assertEquals(10, aValue)
+
+        // |> And removing a key activates its behavior
+        g.action {
+            ms1.remove("a")
+        }
+        assertEquals(2, aRuns)
+        assertNull(aValue)
+        assertSame(ms1.key("a"), ms1.key("a"))
+    }
+
+    @Test
+    fun keysAreOrderedAfterMapSupplier() {
+        // |> Given a map supplied by a behavior and a key demanded by a behavior added before it
+        val tm1 = ext.typedMoment<Int>("tm1")
+        val ms1 = ext.mapState<String, Int>(debugName = "ms1")
+        var seen: Int? = null
+        var present = false
+        ext.behavior()
+            .demands(ms1.key("x"))
+            .runs {
+                seen = ms1.key("x").value
+                present = ms1.key("x").isPresent
+            }
+        ext.behavior()
+            .supplies(ms1)
+            .demands(tm1)
+            .runs {
+                ms1.put("x", tm1.value!!)
+            }
+        ext.addToGraphWithAction()
+
+        // |> When the supplier changes that key
+        tm1.updateWithAction(5)
+
+        // |> Then the key behavior sees the new value in the same event
+        assertEquals(5, seen)
+        assertTrue(present)
+        assertSame(ms1.suppliedBy, ms1.key("x").suppliedBy)
+    }
+
+    @Test
+    fun keyDemandsAreReorderedWithMapSupplier() {
+        // |> Given a key behavior ordered after its map's supplier
+        val ms1 = ext.mapState<String, Long>(debugName = "ms1")
+        val longer = ext.state(0L, "longer")
+        var seen: Long? = null
+        val keyBehavior = ext.behavior()
+            .demands(ms1.key("x"))
+            .runs {
+                seen = ms1.key("x").value
+            }
+        val supplier = ext.behavior()
+            .supplies(ms1)
+            .demands(r_a)
+            .runs {
+                ms1.put("x", r_a.value)
+            }
+        ext.behavior()
+            .supplies(longer)
+            .demands(r_b)
+            .runs {
+                longer.update(r_b.value)
+            }
+        ext.addToGraphWithAction()
+
+        // |> When the supplier is reordered after a later behavior
+        g.action {
+            supplier.setDynamicDemands(longer)
+        }
+        r_a.updateWithAction(3)
+
+        // |> Then the key behavior is reordered too and sees the new value
+        assertTrue(keyBehavior.order > supplier.order)
+        assertEquals(3L, seen)
+    }
+
+    @Test
+    fun keyResourceIsReleasedWhenNoLongerDemanded() {
+        // |> Given a key demanded by a behavior
+        val ms1 = ext.mapState<String, Int>(debugName = "ms1")
+        var runs = 0
+        val keyBehavior = ext.behavior()
+            .runs {
+                runs += 1
+            }
+        ext.addToGraphWithAction()
+        val key = ms1.key("x")
+        g.action {
+            keyBehavior.setDynamicDemands(key)
+        }
+        assertSame(key, ms1.key("x"))
+
+        // |> When nothing demands it anymore
+        g.action {
+            keyBehavior.setDynamicDemands()
+        }
+
+        // |> Then the map lets go of it and its id
+        assertEquals(-1, key.id)
+        assertNotSame(key, ms1.key("x"))
+
+        // |> And a released key demanded again still follows changes
+        g.action {
+            keyBehavior.setDynamicDemands(key)
+        }
+        runs = 0
+        g.action {
+            ms1.put("x", 1)
+        }
+        assertEquals(1, runs)
+    }
+
+    @Test
+    fun undemandedKeyIsReleasedAtEndOfEvent() {
+        // |> Given a map in the graph
+        val ms1 = ext.mapState(mapOf("a" to 1), "ms1")
+        ext.addToGraphWithAction()
+        val resourcesBefore = ext.resources.size
+
+        // |> When a key is asked for during an event but nothing demands it
+        var key: MapKey<String, Int>? = null
+        g.action {
+            key = ms1.key("a")
+            assertSame(key, ms1.key("a"))
+        }
+
+        // |> Then it is released once the event is over and isn't kept with the extent's resources
+        assertEquals(-1, key!!.id)
+        assertNotSame(key, ms1.key("a"))
+        assertEquals(resourcesBefore, ext.resources.size)
+    }
+}
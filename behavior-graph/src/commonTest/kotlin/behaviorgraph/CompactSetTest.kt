@@ -0,0 +1,90 @@
+package behaviorgraph
+
+import kotlin.test.*
+
+internal class CompactSetTest {
+
+    // forces hash collisions so the indexed form has to probe
+    data class Collider(val id: Int) {
+        override fun hashCode(): Int = id % 3
+    }
+
+    @Test
+    fun startsEmpty() {
+        val s = CompactSet<String>()
+        assertEquals(0, s.size)
+        assertFalse(s.contains("a"))
+        assertFalse(s.iterator().hasNext())
+    }
+
+    @Test
+    fun filtersDuplicates() {
+        val s = CompactSet<String>()
+        assertTrue(s.add("a"))
+        assertTrue(s.add("b"))
+        assertFalse(s.add("a"))
+        assertEquals(2, s.size)
+        assertEquals(setOf("a", "b"), s)
+    }
+
+    @Test
+    fun removesByMovingLastElement() {
+        val s = CompactSet<String>()
+        s.add("a")
+        s.add("b")
+        s.add("c")
+        assertTrue(s.remove("a"))
+        assertFalse(s.remove("a"))
+        assertEquals(2, s.size)
+        assertEquals("c", s[0])
+        assertEquals("b", s[1])
+    }
+
+    @Test
+    fun largeSetsStayConsistentThroughRemovals() {
+        val s = CompactSet<Collider>()
+        val expected = mutableSetOf<Collider>()
+        for (i in 0 until 200) {
+            s.add(Collider(i))
+            expected.add(Collider(i))
+        }
+        for (i in 0 until 200 step 3) {
+            assertTrue(s.remove(Collider(i)))
+            expected.remove(Collider(i))
+        }
+        for (i in 0 until 200) {
+            assertEquals(expected.contains(Collider(i)), s.contains(Collider(i)))
+        }
+        assertEquals(expected, s)
+        assertFalse(s.add(Collider(1)))
+        assertTrue(s.add(Collider(0)))
+        assertTrue(s.contains(Collider(0)))
+    }
+
+    @Test
+    fun iteratorCanRemove() {
+        val s = CompactSet<Int>()
+        for (i in 0 until 20) {
+            s.add(i)
+        }
+        val iterator = s.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next() % 2 == 0) {
+                iterator.remove()
+            }
+        }
+        assertEquals((0 until 20).filter { it % 2 == 1 }.toSet(), s)
+    }
+
+    @Test
+    fun clearEmptiesSet() {
+        val s = CompactSet<Int>()
+        for (i in 0 until 20) {
+            s.add(i)
+        }
+        s.clear()
+        assertEquals(0, s.size)
+        assertFalse(s.contains(3))
+        assertTrue(s.add(3))
+    }
+}
@@ -142,4 +142,66 @@ class DependenciesTest : AbstractBehaviorGraphTest() {
         assertTrue(m1_string.isNotEmpty())
         assertTrue(tm1_string.isNotEmpty())
     }
+
+    @Test
+    fun nodesGetDenseIds() {
+        val r1 = ext.moment()
+        val r2 = ext.moment()
+        val b1 = ext.behavior().demands(r1).runs {}
+        val b2 = ext.behavior().demands(r2).runs {}
+        assertEquals(-1, r1.id)
+        ext.addToGraphWithAction()
+
+        assertEquals(r1.id + 1, r2.id)
+        assertEquals(b1.id + 1, b2.id)
+    }
+
+    @Test
+    fun idsAreReusedAfterExtentsAreRemoved() {
+        // |> Given extents that keep being added and removed
+        ext.addToGraphWithAction()
+        var removedIds = setOf<Int>()
+        repeat(1000) {
+            val churned = TestExtent(g)
+            setupExt.addChildLifetime(churned)
+            val r1 = churned.moment()
+            val b1 = churned.behavior().demands(r1, r_a).runs {}
+            churned.addToGraphWithAction()
+            val ids = churned.behaviors.map { behavior -> behavior.id }.toSet()
+            if (it > 0) {
+                // |> Then a new extent gets the ids of the one removed before it
+                assertEquals(removedIds, ids)
+            }
+            removedIds = ids
+            r_a.updateWithAction(it.toLong())
+            churned.removeFromGraphWithAction()
+            assertEquals(-1, b1.id)
+            assertEquals(-1, r1.id)
+        }
+
+        // |> And the arrays indexed by them stay bounded
+        assertTrue(g.behaviorIdCapacity < 20, "behavior ids ${g.behaviorIdCapacity}")
+        assertTrue(g.resourceIdCapacity < 20, "resource ids ${g.resourceIdCapacity}")
+    }
+
+    @Test
+    fun exportsAdjacency() {
+        val r1 = ext.moment()
+        val r2 = ext.moment()
+        val b1 = ext.behavior().demands(r1, r_a).supplies(r2).runs {}
+        val b2 = ext.behavior().demands(r2).runs {}
+        val notAdded = TestExtent(g)
+        val b3 = notAdded.behavior().demands(r1).runs {}
+        g.enableExtentTracking()
+        ext.addToGraphWithAction()
+
+        val adjacency = g.exportAdjacency()
+
+        assertEquals(setOf(r1.id, r_a.id), adjacency.demandsOf(b1.id).toSet())
+        assertEquals(listOf(r2.id), adjacency.suppliesOf(b1.id).toList())
+        assertEquals(listOf(r2.id), adjacency.demandsOf(b2.id).toList())
+        assertEquals(listOf(b2.id), adjacency.subsequentsOf(r2.id).toList())
+        assertEquals(listOf(b1.id), adjacency.subsequentsOf(r1.id).toList())
+        assertEquals(-1, b3.id)
+    }
 }
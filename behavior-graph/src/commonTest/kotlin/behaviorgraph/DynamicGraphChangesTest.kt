@@ -106,7 +106,7 @@ class DynamicGraphChangesTest : AbstractBehaviorGraphTest() {
         assertEquals(r_b.value, 0)
 
         // and be removed
-        assertNull(ext.addedToGraphWhen)
+        assertEquals(Event.NoSequence, ext.addedToGraphWhen)
     }
 
     @Test
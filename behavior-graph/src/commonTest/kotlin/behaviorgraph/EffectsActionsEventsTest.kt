@@ -388,5 +388,27 @@ class EffectsActionsEventsTest : AbstractBehaviorGraphTest() {
             }
         }
     }
-}
 
+    @Test
+    fun behaviorsActivateAgainAfterFailedEvent() {
+        // |> Given a behavior that was activated in an event that failed before it ran
+        val m1 = ext.moment()
+        var runs = 0
+        ext.behavior().demands(m1).runs {
+            runs += 1
+        }
+        ext.addToGraphWithAction()
+        assertFails {
+            g.action {
+                m1.update()
+                throw IllegalStateException("fail")
+            }
+        }
+
+        // |> When it is activated in the next event
+        m1.updateWithAction()
+
+        // |> Then it still runs
+        assertEquals(1, runs)
+    }
+}
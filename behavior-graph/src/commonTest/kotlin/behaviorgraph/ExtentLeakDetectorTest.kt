@@ -0,0 +1,182 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class ExtentLeakDetectorTest : AbstractBehaviorGraphTest() {
+    class LeakItem(g: Graph, source: Resource) : Extent<LeakItem>(g) {
+        val copied = moment()
+
+        init {
+            behavior()
+                .demands(source)
+                .supplies(copied)
+                .runs { copied.update() }
+        }
+    }
+
+    private fun addItems(count: Int): List<LeakItem> {
+        val items = List(count) { LeakItem(g, r_a).also { setupExt.addChildLifetime(it) } }
+        g.action {
+            g.addExtents(items)
+        }
+        return items
+    }
+
+    @Test
+    fun reportGroupsExtentsByClass() {
+        // |> Given several extents of one class in the graph
+        val detector = g.enableLeakDetection()
+        addItems(3)
+        r_a.updateWithAction(1)
+
+        // |> When a report is made
+        val report = detector.report()
+
+        // |> Then they are counted together with their behaviors and links
+        val items = report.classes.first { it.type == LeakItem::class }
+        assertEquals(3, items.count)
+        assertEquals(3, items.growth)
+        assertEquals(6, items.behaviorCount)
+        // each has its didAdd behavior supplying didAdd and a behavior demanding r_a and supplying copied
+        assertEquals(9, items.linkCount)
+        assertEquals(1L, items.oldestAge)
+        assertEquals(LeakItem::class, report.classes[0].type)
+    }
+
+    @Test
+    fun classThatKeepsGrowingIsSuspicious() {
+        // |> Given leak detection that flags two reports of growth
+        val detector = g.enableLeakDetection(growthThreshold = 2)
+
+        // |> When one class grows between reports and the others stay the same
+        addItems(1)
+        detector.report()
+        addItems(1)
+        val report = detector.report()
+
+        // |> Then only the growing class is suspicious
+        assertEquals(listOf<Any>(LeakItem::class), report.suspicious.map { it.type })
+        assertEquals(2, report.suspicious[0].growthStreak)
+        assertEquals(1, report.suspicious[0].growth)
+    }
+
+    @Test
+    fun growthStreakEndsWhenClassStopsGrowing() {
+        // |> Given a class that grew and was reported
+        val detector = g.enableLeakDetection(growthThreshold = 2)
+        val items = addItems(2)
+        detector.report()
+
+        // |> When some are removed before the next report
+        g.action {
+            g.removeExtents(items.take(1))
+        }
+        val report = detector.report()
+
+        // |> Then it is not suspicious
+        val stats = report.classes.first { it.type == LeakItem::class }
+        assertEquals(-1, stats.growth)
+        assertEquals(0, stats.growthStreak)
+        assertTrue(report.suspicious.isEmpty())
+    }
+
+    @Test
+    fun accumulatingObserversAreSuspicious() {
+        // |> Given leak detection
+        val detector = g.enableLeakDetection(growthThreshold = 2)
+        val longLived = TestExtent(g)
+        val s1 = longLived.state(0L, "s1")
+        longLived.addToGraphWithAction()
+        detector.report()
+
+        // |> When observers keep being added to a long lived extent
+        s1.observeUpdates { }
+        detector.report()
+        s1.observeUpdates { }
+        val report = detector.report()
+
+        // |> Then its class is suspicious even though the number of extents is the same
+        val stats = report.suspicious.first { it.type == TestExtent::class }
+        assertEquals(0, stats.growth)
+        assertEquals(2, stats.observerCount)
+    }
+
+    @Test
+    fun reportsPeriodically() {
+        // |> Given leak detection reporting every two events
+        val reports = mutableListOf<ExtentLeakReport>()
+        g.enableLeakDetection(reportEvery = 2) { reports.add(it) }
+
+        // |> When several events run
+        repeat(5) {
+            r_a.updateWithAction(it.toLong() + 1)
+        }
+
+        // |> Then a report is made for every second event
+        assertEquals(2, reports.size)
+        assertEquals(reports[0].sequence + 2, reports[1].sequence)
+    }
+
+    @Test
+    fun watchedExtentWithLiveOwnerIsNotOrphaned() {
+        // |> Given an extent watched with an owner that is still referenced
+        val detector = g.enableLeakDetection()
+        val owner = Any()
+        val item = addItems(1)[0]
+        detector.watch(item, owner)
+
+        // |> When orphans are checked
+        // |> Then it is not reported
+        assertTrue(detector.orphanedExtents().isEmpty())
+        assertNotNull(owner)
+    }
+
+    @Test
+    fun ownerReachableFromExtentIsAnError() {
+        // |> Given an extent with a context
+        val detector = g.enableLeakDetection()
+        val owner = Any()
+        val item = Extent(g, owner)
+
+        // |> When it is watched with its own context as owner
+        // |> Then raise an error
+        assertFails {
+            detector.watch(item, owner)
+        }
+    }
+
+    @Test
+    fun removedExtentIsForgottenWithoutReports() {
+        // |> Given watched extents and no periodic reports
+        val detector = g.enableLeakDetection()
+        val owner = Any()
+        val items = addItems(2)
+        items.forEach { detector.watch(it, owner) }
+
+        // |> When they are removed from the graph
+        g.action {
+            items.forEach { it.removeFromGraph() }
+        }
+
+        // |> Then the detector no longer holds them
+        assertEquals(0, detector.watchedCount)
+    }
+
+    @Test
+    fun releasedExtentIsForgotten() {
+        // |> Given a watched extent that was never added
+        val detector = g.enableLeakDetection()
+        val pool = ExtentPool { LeakItem(g, r_a) }
+        val item = pool.acquire()
+        detector.watch(item, Any())
+
+        // |> When it is released to a pool
+        pool.release(item)
+
+        // |> Then the detector no longer holds it
+        assertEquals(0, detector.watchedCount)
+    }
+}
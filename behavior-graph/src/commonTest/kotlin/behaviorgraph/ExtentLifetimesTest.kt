@@ -153,7 +153,7 @@ class ExtentLifetimesTest : AbstractBehaviorGraphTest() {
         }
 
         // |> Then unified are also removed
-        assertNull(ext2.addedToGraphWhen)
+        assertEquals(Event.NoSequence, ext2.addedToGraphWhen)
     }
 
     @Test
@@ -277,8 +277,8 @@ class ExtentLifetimesTest : AbstractBehaviorGraphTest() {
         // |> When parent is removed with containedLifetime strategy
         // |> Then children (and their unified) are removed
         ext1.removeFromGraphWithAction(ExtentRemoveStrategy.ContainedLifetimes)
-        assertNull(ext2.addedToGraphWhen)
-        assertNull(ext3.addedToGraphWhen)
+        assertEquals(Event.NoSequence, ext2.addedToGraphWhen)
+        assertEquals(Event.NoSequence, ext3.addedToGraphWhen)
     }
 
     @Test
@@ -421,9 +421,59 @@ class ExtentLifetimesTest : AbstractBehaviorGraphTest() {
         ext1.removeFromGraphWithAction(ExtentRemoveStrategy.ContainedLifetimes)
 
         // |> Then children and unified are recursively removed
-        assertNull(ext3.addedToGraphWhen)
-        assertNull(ext4.addedToGraphWhen)
-        assertNull(ext5.addedToGraphWhen)
+        assertEquals(Event.NoSequence, ext3.addedToGraphWhen)
+        assertEquals(Event.NoSequence, ext4.addedToGraphWhen)
+        assertEquals(Event.NoSequence, ext5.addedToGraphWhen)
+    }
+
+    @Test
+    fun canRemoveDeepChainOfChildren() {
+        // |> Given a long chain of child lifetimes
+        val extents = List(5000) { TestExtent(g) }
+        for (i in 1 until extents.size) {
+            extents[i - 1].addChildLifetime(extents[i])
+        }
+        g.action {
+            for (extent in extents) {
+                extent.addToGraph()
+            }
+        }
+
+        // |> When we remove the first with containedLifetimes strategy
+        extents[0].removeFromGraphWithAction(ExtentRemoveStrategy.ContainedLifetimes)
+
+        // |> Then every generation is removed without recursing through the chain
+        assertTrue(extents.all { it.addedToGraphWhen == Event.NoSequence })
+        assertNull(extents.last().lifetime)
+    }
+
+    @Test
+    fun canRemoveLargeUnifiedLifetime() {
+        // |> Given many extents unified under a parent
+        val parent = TestExtent(g)
+        val unified = List(2000) { TestExtent(g) }
+        val child = TestExtent(g)
+        for (extent in unified) {
+            parent.unifyLifetime(extent)
+        }
+        unified.last().addChildLifetime(child)
+        g.action {
+            parent.addToGraph()
+            for (extent in unified) {
+                extent.addToGraph()
+            }
+            child.addToGraph()
+        }
+
+        // |> When they are removed together
+        g.action {
+            g.removeExtents(unified, ExtentRemoveStrategy.ContainedLifetimes)
+        }
+
+        // |> Then the parent and child go with them
+        assertEquals(Event.NoSequence, parent.addedToGraphWhen)
+        assertEquals(Event.NoSequence, child.addedToGraphWhen)
+        assertTrue(unified.all { it.addedToGraphWhen == Event.NoSequence })
     }
 
     @Test
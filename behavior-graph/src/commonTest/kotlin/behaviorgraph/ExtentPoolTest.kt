@@ -0,0 +1,176 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class ExtentPoolTest : AbstractBehaviorGraphTest() {
+    class PooledItem(g: Graph, source: State<Long>) : Extent<PooledItem>(g) {
+        val count = intState(0)
+        val copied = state(0L)
+        val items = listState(listOf("a"))
+        var runs = 0
+
+        init {
+            behavior()
+                .demands(source, didAdd)
+                .supplies(copied)
+                .runs {
+                    runs++
+                    copied.update(source.value)
+                }
+        }
+    }
+
+    // lifetimes are cleared when an extent is reset so they are set up each time it is acquired
+    private fun ExtentPool<PooledItem>.acquireChild(): PooledItem {
+        val item = acquire()
+        setupExt.addChildLifetime(item)
+        return item
+    }
+
+    @Test
+    fun reusedExtentStartsFromInitialValues() {
+        // |> Given an extent from a pool that has been changed and removed
+        val pool = ExtentPool { PooledItem(g, r_a) }
+        val item = pool.acquireChild()
+        item.addToGraphWithAction()
+        g.action {
+            item.count.update(5)
+            item.items.add("b")
+            r_a.update(2)
+        }
+        item.removeFromGraphWithAction()
+        pool.release(item)
+
+        // |> When an extent is acquired again
+        var reused: PooledItem? = null
+        g.action {
+            reused = pool.acquireChild()
+            reused!!.addToGraph()
+        }
+
+        // |> Then it is the same instance with its initial values and its behaviors are linked again
+        assertSame(item, reused)
+        assertEquals(0, item.count.value)
+        assertEquals(listOf("a"), item.items.value)
+        assertEquals(2L, item.copied.value)
+        assertTrue(item.didAdd.value)
+        r_a.updateWithAction(3)
+        assertEquals(3L, item.copied.value)
+        assertEquals(0, pool.size)
+    }
+
+    @Test
+    fun releasedExtentIsNotReusedDuringItsRemovalEvent() {
+        // |> Given an extent in the graph
+        val pool = ExtentPool { PooledItem(g, r_a) }
+        val item = pool.acquireChild()
+        item.addToGraphWithAction()
+
+        // |> When it is removed, released and another acquired in the same event
+        var other: PooledItem? = null
+        g.action {
+            item.removeFromGraph()
+            pool.release(item)
+            other = pool.acquireChild()
+            other!!.addToGraph()
+        }
+
+        // |> Then a new extent is created and the released one waits for a later event
+        assertNotSame(item, other)
+        assertEquals(1, pool.size)
+        g.action {
+            assertSame(item, pool.acquire())
+        }
+    }
+
+    @Test
+    fun removedExtentNoLongerRunsAfterRelease() {
+        // |> Given an extent that was released to a pool
+        val pool = ExtentPool { PooledItem(g, r_a) }
+        val item = pool.acquireChild()
+        item.addToGraphWithAction()
+        val runs = item.runs
+        item.removeFromGraphWithAction()
+        pool.release(item)
+
+        // |> When a resource it demanded updates
+        r_a.updateWithAction(4)
+
+        // |> Then its behavior does not run
+        assertEquals(runs, item.runs)
+    }
+
+    @Test
+    fun poolKeepsAtMostMaxSize() {
+        // |> Given a pool with a small maximum
+        val pool = ExtentPool(2) { PooledItem(g, r_a) }
+
+        // |> When more extents are released
+        repeat(3) {
+            pool.release(pool.acquire())
+        }
+        repeat(3) {
+            pool.release(PooledItem(g, r_a))
+        }
+
+        // |> Then only that many are kept
+        assertEquals(2, pool.size)
+    }
+
+    @Test
+    fun onlyRemovedExtentsCanBeReleased() {
+        // |> Given an extent in the graph
+        val pool = ExtentPool { PooledItem(g, r_a) }
+        val item = pool.acquireChild()
+        item.addToGraphWithAction()
+
+        // |> When it is released without being removed
+        // |> Then raise an error
+        assertFails {
+            pool.release(item)
+        }
+    }
+
+    @Test
+    fun extentCannotBeReleasedTwice() {
+        // |> Given a released extent
+        val pool = ExtentPool { PooledItem(g, r_a) }
+        val item = pool.acquire()
+        pool.release(item)
+
+        // |> When it is released again
+        // |> Then raise an error
+        assertFails {
+            pool.release(item)
+        }
+    }
+
+    @Test
+    fun lateBehaviorsAreDroppedWhenReused() {
+        // |> Given a pooled extent that was observed after it was added
+        val pool = ExtentPool { PooledItem(g, r_a) }
+        val item = pool.acquireChild()
+        item.addToGraphWithAction()
+        val behaviorCount = item.behaviors.size
+        var observed = 0
+        item.copied.observeUpdates { observed++ }
+        r_a.updateWithAction(1)
+        assertEquals(1, observed)
+        item.removeFromGraphWithAction()
+        pool.release(item)
+
+        // |> When it is reused
+        val reused = pool.acquireChild()
+        reused.addToGraphWithAction()
+        r_a.updateWithAction(2)
+
+        // |> Then the earlier observer is gone with its behavior
+        assertSame(item, reused)
+        assertEquals(behaviorCount, reused.behaviors.size)
+        assertEquals(1, observed)
+        assertEquals(2L, reused.copied.value)
+    }
+}
@@ -0,0 +1,143 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class ExtentTemplateTest : AbstractBehaviorGraphTest() {
+    class TemplateItem(g: Graph) : Extent<TemplateItem>(g) {
+        val count = intState(0)
+        val doubled = intState(0)
+        val useTotal = booleanState(false)
+        val total = intState(0)
+        val offset = intState(0)
+        val reported = intState(0)
+
+        init {
+            template.applyTo(this)
+        }
+
+        companion object {
+            val template = ExtentTemplate<TemplateItem>(shareUncheckedThunks = true) { ext ->
+                ext.behavior()
+                    .demands(ext.count, ext.offset.order)
+                    .supplies(ext.doubled)
+                    .runs { it.doubled.update(it.count.value * 2 + it.offset.value) }
+                ext.behavior()
+                    .demands(ext.useTotal)
+                    .supplies(ext.reported)
+                    .dynamicDemands(ext.didAdd, ext.useTotal) { ctx, demands ->
+                        demands.add(if (ctx.useTotal.value) ctx.total else ctx.doubled)
+                    }
+                    .runs {
+                        val source = if (it.useTotal.value) it.total else it.doubled
+                        it.reported.update(source.value)
+                    }
+            }
+        }
+    }
+
+    class CrossLinkedItem(g: Graph, val other: Resource) : Extent<CrossLinkedItem>(g) {
+        val result = state(0)
+
+        init {
+            template.applyTo(this)
+        }
+
+        companion object {
+            val template = ExtentTemplate<CrossLinkedItem> { ext ->
+                ext.behavior()
+                    .demands(ext.other)
+                    .supplies(ext.result)
+                    .runs { it.result.update(1) }
+            }
+        }
+    }
+
+    @Test
+    fun instancesRunTheirOwnBehaviors() {
+        // |> Given several extents created from a template
+        val items = List(3) { TemplateItem(g) }
+        g.action {
+            items.forEach { it.addToGraph() }
+        }
+
+        // |> When one instance updates
+        items[1].count.updateWithAction(5)
+
+        // |> Then only its behaviors run
+        assertEquals(10, items[1].doubled.value)
+        assertEquals(10, items[1].reported.value)
+        assertEquals(0, items[0].doubled.value)
+        assertEquals(0, items[2].reported.value)
+    }
+
+    @Test
+    fun laterInstancesShareRecordedLinks() {
+        // |> Given the template has been recorded
+        TemplateItem(g)
+
+        // |> When another instance is created
+        val item = TemplateItem(g)
+
+        // |> Then its behaviors link to its own resources without builder lists
+        val main = item.behaviors[1]
+        assertTrue(main.untrackedDemands is TemplateLinks)
+        assertSame(item.count, main.untrackedDemands!![0])
+        assertEquals(LinkType.Order, main.untrackedDemands!![1].type)
+        assertSame(item.offset, main.untrackedDemands!![1].resource)
+        assertSame(item.doubled, main.untrackedSupplies!![0])
+        assertTrue(main.thunk === TemplateItem(g).behaviors[1].thunk)
+    }
+
+    @Test
+    fun dynamicLinksRelinkEachInstance() {
+        // |> Given two template extents in the graph
+        val item1 = TemplateItem(g)
+        val item2 = TemplateItem(g)
+        g.action {
+            item1.addToGraph()
+            item2.addToGraph()
+        }
+
+        // |> When one switches its dynamic demand
+        g.action {
+            item2.useTotal.update(true)
+            item2.total.update(7)
+        }
+
+        // |> Then it relinks to the new resource and the other is unchanged
+        assertEquals(7, item2.reported.value)
+        assertTrue(item2.behaviors[2].demands!!.contains(item2.total))
+        assertTrue(item1.behaviors[2].demands!!.contains(item1.doubled))
+        item1.count.updateWithAction(2)
+        assertEquals(4, item1.reported.value)
+    }
+
+    @Test
+    fun orderLinksAreKept() {
+        // |> Given a template extent with an order demand
+        TemplateItem(g)
+        val item = TemplateItem(g)
+        item.addToGraphWithAction()
+
+        // |> When the order demanded resource updates
+        item.offset.updateWithAction(3)
+
+        // |> Then the behavior does not run
+        assertEquals(0, item.doubled.value)
+        item.count.updateWithAction(1)
+        assertEquals(5, item.doubled.value)
+    }
+
+    @Test
+    fun linksOutsideTheExtentCannotBeTemplated() {
+        // |> Given a template behavior that demands a resource of another extent
+        // |> When it is recorded
+        // |> Then raise an error
+        assertFails {
+            CrossLinkedItem(g, ext.moment())
+        }
+    }
+}
@@ -53,6 +53,74 @@ class ExtentTest : AbstractBehaviorGraphTest() {
         assertTrue(e.r2.debugName?.contains(Regex("custom_r2")) == true)
     }
 
+    @Test
+    fun namesResourcesOfEveryInstanceOfAClass() {
+        // |> Given several extents of the same class
+        val extents = List(3) { TestExtentLocal(g) }
+
+        // |> When they are added
+        g.action {
+            for (e in extents) {
+                e.addToGraph()
+            }
+        }
+
+        // |> Then each instance's resources are named
+        // (regex because kotlin name mangling modifies the field name when converting to js)
+        for (e in extents) {
+            assertTrue(e.r1.debugName?.contains(Regex("r1")) == true)
+            assertEquals("custom_r2", e.r2.debugName)
+        }
+    }
+
+    @Test
+    fun registeredNamerNamesResources() {
+        // |> Given a namer registered for an extent class
+        var named = 0
+        g.registerResourceNamer(TestExtentLocal::class) { focus ->
+            named += 1
+            if (focus.r1.debugName == null) {
+                focus.r1.debugName = "named_r1"
+            }
+        }
+        val e = TestExtentLocal(g)
+
+        // |> When it is added
+        e.addToGraphWithAction()
+
+        // |> Then the namer names its resources instead of reflection
+        assertEquals(1, named)
+        assertEquals("named_r1", e.r1.debugName)
+    }
+
+    @Test
+    fun registeredNamerAppliesToSubclasses() {
+        // |> Given a namer registered for a base extent class
+        val named = mutableListOf<Extent<*>>()
+        g.registerResourceNamer(TestExtent::class) { focus ->
+            named.add(focus)
+        }
+        val e1 = TestExtentLocal(g)
+
+        // |> When an instance of a subclass is added
+        e1.addToGraphWithAction()
+
+        // |> Then the base namer is used instead of reflection
+        assertEquals(listOf<Extent<*>>(e1), named)
+        assertNull(e1.r1.debugName)
+
+        // |> And a namer registered later for the subclass takes over
+        g.action {
+            g.registerResourceNamer(TestExtentLocal::class) { focus ->
+                focus.r1.debugName = "local_r1"
+            }
+        }
+        val e2 = TestExtentLocal(g)
+        e2.addToGraphWithAction()
+        assertEquals(listOf<Extent<*>>(e1), named)
+        assertEquals("local_r1", e2.r1.debugName)
+    }
+
     @Test
     fun automaticNamingCanBeDisabled() {
         g.automaticResourceNaming = false
@@ -78,6 +146,64 @@ class ExtentTest : AbstractBehaviorGraphTest() {
     }
 
     //checks below
+    @Test
+    fun canAddAndRemoveExtentsInBulk() {
+        // |> Given many extents
+        val extents = List(50) { TestExtentLocal(g) }
+
+        // |> When they are added together
+        g.action {
+            g.addExtents(extents)
+        }
+
+        // |> Then each is added, named and linked
+        for (e in extents) {
+            assertNotEquals(Event.NoSequence, e.addedToGraphWhen)
+            assertTrue(e.r1.debugName?.contains(Regex("r1")) == true)
+        }
+        extents[7].injectNumber(3)
+        assertEquals(6, extents[7].r2.value)
+
+        // |> And when they are removed together
+        g.action {
+            g.removeExtents(extents)
+        }
+
+        // |> Then all are removed
+        for (e in extents) {
+            assertEquals(Event.NoSequence, e.addedToGraphWhen)
+            assertNotEquals(Event.NoSequence, e.b1.removedWhen)
+        }
+    }
+
+    @Test
+    fun bulkRemoveWithLifetimesRemovesSharedExtentsOnce() {
+        // |> Given a parent with a child lifetime, both listed for removal
+        val parent = TestExtentLocal(g)
+        val child = TestExtentLocal(g)
+        parent.addChildLifetime(child)
+        g.action {
+            g.addExtents(listOf(parent, child))
+        }
+
+        // |> When removed with the contained lifetimes strategy
+        g.action {
+            g.removeExtents(listOf(parent, child), ExtentRemoveStrategy.ContainedLifetimes)
+        }
+
+        // |> Then both are removed without error
+        assertEquals(Event.NoSequence, parent.addedToGraphWhen)
+        assertEquals(Event.NoSequence, child.addedToGraphWhen)
+    }
+
+    @Test
+    fun checkBulkAddOutsideEventIsAnError() {
+        val e = TestExtentLocal(g)
+        assertFails {
+            g.addExtents(listOf(e))
+        }
+    }
+
     @Test
     fun checkCannotAddExtentToGraphMultipleTimes() {
         assertFails { setupExt.addToGraphWithAction() }
@@ -0,0 +1,132 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.runTest
+import kotlin.test.*
+
+class FlowAdaptersTest : AbstractBehaviorGraphTest() {
+    @Test
+    fun stateFlowFollowsState() {
+        // |> Given a state flow for a state
+        val flow = r_a.asStateFlow()
+        ext.addToGraphWithAction()
+
+        // |> When the state updates
+        r_a.updateWithAction(2)
+
+        // |> Then the flow has the new value
+        assertEquals(2L, flow.value)
+    }
+
+    @Test
+    fun stateFlowPublishesAtEndOfEvent() {
+        // |> Given a state flow for a state
+        val flow = r_a.asStateFlow()
+
+        // |> When the state updates inside an action
+        var duringEvent: Long? = null
+        g.action {
+            r_a.update(3)
+            duringEvent = flow.value
+        }
+
+        // |> Then the flow only changes once the event's behaviors have run
+        assertEquals(0L, duringEvent)
+        assertEquals(3L, flow.value)
+    }
+
+    @Test
+    fun typedMomentFlowEmitsEachUpdate() {
+        // |> Given a collector of a moment's flow
+        val m1 = ext.typedMoment<Int>()
+        val flow = m1.asFlow()
+        ext.addToGraphWithAction()
+        val received = mutableListOf<Int>()
+        val collecting = CoroutineScope(Dispatchers.Unconfined).launch {
+            flow.toList(received)
+        }
+
+        // |> When the moment updates several times
+        m1.updateWithAction(1)
+        m1.updateWithAction(2)
+
+        // |> Then each value is emitted in order
+        assertEquals(listOf(1, 2), received)
+        collecting.cancel()
+    }
+
+    @Test
+    fun momentFlowEmitsEvents() {
+        // |> Given a collector of a moment's flow
+        val m1 = ext.moment()
+        val flow = m1.asFlow()
+        ext.addToGraphWithAction()
+        val received = mutableListOf<Event>()
+        val collecting = CoroutineScope(Dispatchers.Unconfined).launch {
+            flow.toList(received)
+        }
+
+        // |> When the moment updates
+        m1.updateWithAction()
+
+        // |> Then the event it updated in is emitted
+        assertEquals(listOf(g.lastEvent), received)
+        collecting.cancel()
+    }
+
+    @Test
+    fun repeatedCallsShareOneFlow() {
+        // |> Given a state and moments
+        val m1 = ext.moment()
+        val m2 = ext.typedMoment<Int>()
+        ext.addToGraphWithAction()
+        val behaviorsBefore = ext.behaviors.size
+
+        // |> When their flows are asked for many times
+        val stateFlows = List(10) { r_a.asStateFlow() }
+        val momentFlows = List(10) { m1.asFlow() }
+        val typedFlows = List(10) { m2.asFlow() }
+        r_a.updateWithAction(4)
+
+        // |> Then each resource returns the same flow and adds at most its one observer behavior
+        assertTrue(stateFlows.all { it === stateFlows[0] })
+        assertTrue(momentFlows.all { it === momentFlows[0] })
+        assertTrue(typedFlows.all { it === typedFlows[0] })
+        assertEquals(behaviorsBefore + 2, ext.behaviors.size)
+        assertEquals(4L, stateFlows[0].value)
+    }
+
+    @Test
+    fun collectIntoStateUpdatesState() = runTest {
+        // |> Given a flow of values
+        val values = listOf(1L, 2L, 3L).asFlow()
+
+        // |> When it is collected into a state
+        values.collectInto(r_a)
+
+        // |> Then the state has the last value
+        assertEquals(3L, r_a.traceValue)
+    }
+
+    @Test
+    fun collectIntoListBatchesWaitingValues() = runTest {
+        // |> Given a list and a flow that emits faster than actions are created
+        val list = ext.listState<Int>(listOf())
+        ext.addToGraphWithAction()
+        val before = g.lastEvent.sequence
+
+        // |> When the flow is collected into the list
+        listOf(1, 2, 3, 4).asFlow().collectInto(list)
+
+        // |> Then the waiting values are appended in order in a single action
+        assertEquals(listOf(1, 2, 3, 4), list.value)
+        assertEquals(before + 1, g.lastEvent.sequence)
+    }
+}
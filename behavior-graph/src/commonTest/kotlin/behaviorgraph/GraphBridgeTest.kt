@@ -0,0 +1,230 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class GraphBridgeTest : AbstractBehaviorGraphTest() {
+    lateinit var g2: Graph
+    lateinit var ext2: TestExtent
+
+    @BeforeTest
+    override fun setUp() {
+        super.setUp()
+        g2 = Graph()
+        g2.defaultSideEffectDispatcher = testDispatcher
+        ext2 = TestExtent(g2)
+    }
+
+    @Test
+    fun mirroredStateFollowsSource() {
+        // |> Given a state mirrored into another graph
+        val bridge = GraphBridge(g, g2)
+        val mirrored = bridge.mirror(r_a, ext2)
+        ext2.addToGraphWithAction()
+
+        // |> When the source state updates
+        r_a.updateWithAction(5)
+
+        // |> Then the mirror updates in the target graph
+        assertEquals(5L, mirrored.traceValue)
+        var seen: Long? = null
+        g2.action {
+            seen = mirrored.value
+        }
+        assertEquals(5L, seen)
+    }
+
+    @Test
+    fun dispatcherDeliversChangesInOrder() {
+        // |> Given a bridge that delivers on a dispatcher
+        val bridge = GraphBridge(g, g2, testDispatcher)
+        val mirrored = bridge.mirror(r_a, ext2)
+        val seen = mutableListOf<Long>()
+        ext2.behavior()
+            .demands(mirrored)
+            .runs {
+                seen.add(mirrored.value)
+            }
+        ext2.addToGraphWithAction()
+
+        // |> When the source updates several times
+        r_a.updateWithAction(1)
+        r_a.updateWithAction(2)
+        r_a.updateWithAction(3)
+
+        // |> Then each update arrives in order
+        assertEquals(listOf(1L, 2L, 3L), seen.takeLast(3))
+    }
+
+    @Test
+    fun mirroredStateStartsWithSourceValue() {
+        // |> Given a state that already has a value
+        r_a.updateWithAction(3)
+
+        // |> When it is mirrored
+        val bridge = GraphBridge(g, g2)
+        val mirrored = bridge.mirror(r_a, ext2)
+
+        // |> Then the mirror starts with the same value
+        assertEquals(3L, mirrored.traceValue)
+    }
+
+    @Test
+    fun mirroredMomentUpdatesWithValue() {
+        // |> Given a moment mirrored into another graph
+        val source = TestExtent(g)
+        val m1 = source.typedMoment<Int>()
+        val bridge = GraphBridge(g, g2)
+        val mirrored = bridge.mirror(m1, ext2)
+        val received = mutableListOf<Int>()
+        ext2.behavior()
+            .demands(mirrored)
+            .runs {
+                if (mirrored.justUpdated) {
+                    received.add(mirrored.value!!)
+                }
+            }
+        source.addToGraphWithAction()
+        ext2.addToGraphWithAction()
+
+        // |> When the source moment updates
+        m1.updateWithAction(1)
+        m1.updateWithAction(2)
+
+        // |> Then the mirrored moment updates in order in the target graph
+        assertEquals(listOf(1, 2), received)
+    }
+
+    @Test
+    fun changesFromOneEventArriveInOneEvent() {
+        // |> Given two states mirrored into another graph
+        val bridge = GraphBridge(g, g2)
+        val mirrorA = bridge.mirror(r_a, ext2)
+        val mirrorB = bridge.mirror(r_b, ext2)
+        val seen = mutableListOf<Pair<Long, Long>>()
+        ext2.behavior()
+            .demands(mirrorA, mirrorB)
+            .runs {
+                seen.add(Pair(mirrorA.value, mirrorB.value))
+            }
+        ext2.addToGraphWithAction()
+        val before = g2.lastEvent.sequence
+
+        // |> When both update in the same source event
+        g.action {
+            r_a.update(1)
+            r_b.update(2)
+        }
+
+        // |> Then the target sees both changes together in a single event
+        assertEquals(listOf(Pair(1L, 2L)), seen)
+        assertEquals(before + 1, g2.lastEvent.sequence)
+    }
+
+    @Test
+    fun mirroringLateAddedResourceForwardsUpdates() {
+        // |> Given a source extent already in the graph
+        val source = TestExtent(g)
+        val count = source.state(0)
+        source.addToGraphWithAction()
+
+        // |> When its state is mirrored afterwards
+        val bridge = GraphBridge(g, g2)
+        val mirrored = bridge.mirror(count, ext2)
+        ext2.addToGraphWithAction()
+        count.updateWithAction(7)
+
+        // |> Then updates are still forwarded
+        assertEquals(7, mirrored.traceValue)
+    }
+
+    @Test
+    fun updateAfterFailedSourceEventIsMirrored() {
+        // |> Given a mirrored state and a behavior that fails after the bridge has recorded an update
+        val bridge = GraphBridge(g, g2)
+        val mirrored = bridge.mirror(r_a, ext2)
+        ext2.addToGraphWithAction()
+        val copy = ext.state(0L)
+        ext.behavior()
+            .demands(r_a)
+            .supplies(copy)
+            .runs {
+                copy.update(r_a.value)
+            }
+        ext.behavior()
+            .demands(copy)
+            .runs {
+                if (copy.value == 1L) {
+                    throw IllegalStateException("fails")
+                }
+            }
+        ext.addToGraphWithAction()
+
+        // |> When a source event fails and the next one updates the state
+        assertFails {
+            r_a.updateWithAction(1)
+        }
+        r_a.updateWithAction(2)
+
+        // |> Then the later update still reaches the target graph
+        assertEquals(2L, mirrored.traceValue)
+    }
+
+    @Test
+    fun failedTargetActionIsReported() {
+        // |> Given a bridge with an error handler and a target behavior that fails on one value
+        val errors = mutableListOf<Throwable>()
+        val bridge = GraphBridge(g, g2, onError = { errors.add(it) })
+        val mirrored = bridge.mirror(r_a, ext2)
+        ext2.behavior()
+            .demands(mirrored)
+            .runs {
+                if (mirrored.value == 1L) {
+                    throw IllegalStateException("fails")
+                }
+            }
+        ext2.addToGraphWithAction()
+
+        // |> When the source updates to that value
+        r_a.updateWithAction(1)
+
+        // |> Then the failure is reported without failing the source event
+        assertEquals(1, errors.size)
+        assertTrue(errors[0] is IllegalStateException)
+        assertEquals(1L, r_a.traceValue)
+
+        // |> And later changes are still delivered
+        r_a.updateWithAction(2)
+        assertEquals(2L, mirrored.traceValue)
+    }
+
+    @Test
+    fun closedBridgeStopsForwarding() {
+        // |> Given a mirrored state
+        val bridge = GraphBridge(g, g2)
+        val mirrored = bridge.mirror(r_a, ext2)
+        ext2.addToGraphWithAction()
+        r_a.updateWithAction(1)
+
+        // |> When the bridge is closed
+        bridge.close()
+        r_a.updateWithAction(2)
+
+        // |> Then later updates are not forwarded
+        assertEquals(1L, mirrored.traceValue)
+    }
+
+    @Test
+    fun mirrorMustConnectTheBridgedGraphs() {
+        // |> Given a bridge
+        val bridge = GraphBridge(g, g2)
+
+        // |> When mirroring into an extent of the source graph
+        // |> Then raise an error
+        assertFails {
+            bridge.mirror(r_a, ext)
+        }
+    }
+}
@@ -0,0 +1,97 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlin.test.*
+
+class GraphFootprintTest : AbstractBehaviorGraphTest() {
+    class FootprintItem(g: Graph, source: Resource) : Extent<FootprintItem>(g) {
+        val items = listState(List(100) { it })
+        val copied = moment()
+
+        init {
+            behavior()
+                .demands(source, items)
+                .supplies(copied)
+                .runs { copied.update() }
+        }
+    }
+
+    @Test
+    fun countsExtentsByClass() {
+        // |> Given extents of two classes in the graph
+        g.enableExtentTracking()
+        val items = List(4) { FootprintItem(g, r_a).also { setupExt.addChildLifetime(it) } }
+        g.action {
+            g.addExtents(items)
+            ext.addToGraph()
+        }
+
+        // |> When the footprint is taken
+        val footprint = g.footprint()
+
+        // |> Then each class is counted separately
+        val stats = footprint.classes.first { it.type == FootprintItem::class }
+        assertEquals(4, stats.extents)
+        assertEquals(8, stats.behaviors)
+        // didAdd, items and copied
+        assertEquals(12, stats.resources)
+        assertEquals(8, stats.demandEdges)
+        assertEquals(8, stats.supplyEdges)
+        val testExtents = footprint.classes.first { it.type == TestExtent::class }
+        assertEquals(1, testExtents.extents)
+        assertEquals(5, footprint.extents)
+        assertEquals(stats.estimatedBytes + testExtents.estimatedBytes, footprint.estimatedBytes)
+    }
+
+    @Test
+    fun estimateIncludesResourceStorage() {
+        // |> Given an extent holding a large list
+        g.enableExtentTracking()
+        val item = FootprintItem(g, r_a)
+        setupExt.addChildLifetime(item)
+        item.addToGraphWithAction()
+        val before = g.footprint().classes.first { it.type == FootprintItem::class }.estimatedBytes
+
+        // |> When the list grows
+        g.action {
+            item.items.addAll(List(1000) { it })
+        }
+
+        // |> Then the estimate grows by at least a reference per element
+        val after = g.footprint().classes.first { it.type == FootprintItem::class }.estimatedBytes
+        assertTrue(after - before >= 4000, "grew by ${after - before}")
+    }
+
+    @Test
+    fun removedExtentsAreNotCounted() {
+        // |> Given an extent that was added and removed
+        g.enableExtentTracking()
+        val item = FootprintItem(g, r_a)
+        setupExt.addChildLifetime(item)
+        item.addToGraphWithAction()
+        item.removeFromGraphWithAction()
+
+        // |> When the footprint is taken
+        val footprint = g.footprint()
+
+        // |> Then its class is not reported
+        assertTrue(footprint.classes.none { it.type == FootprintItem::class })
+    }
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    @Test
+    fun footprintWithActionCompletes() {
+        // |> Given a graph with extents
+        g.enableExtentTracking()
+        ext.addToGraphWithAction()
+
+        // |> When the footprint is requested with an action
+        val deferred = g.footprintWithAction()
+
+        // |> Then it completes with the same report
+        assertEquals(1, deferred.getCompleted().extents)
+    }
+}
@@ -0,0 +1,96 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class GraphPoolTest : AbstractBehaviorGraphTest() {
+    @Test
+    fun pooledActionsRunInOrder() {
+        // |> Given a graph attached to a pool
+        val pool = GraphPool(testDispatcher)
+        val pooled = pool.attach(g)
+        val seen = mutableListOf<Long>()
+        ext.behavior()
+            .demands(r_a)
+            .runs {
+                seen.add(r_a.value)
+            }
+        ext.addToGraphWithAction()
+
+        // |> When actions are submitted through the pool
+        pooled.action { r_a.update(1) }
+        pooled.action { r_a.update(2) }
+        val job = pooled.action { r_a.update(3) }
+
+        // |> Then they run in submission order
+        assertTrue(job.isCompleted)
+        assertEquals(listOf(1L, 2L, 3L), seen)
+        assertEquals(0, pooled.queuedActions)
+    }
+
+    @Test
+    fun metricsCountGraphsAndActions() {
+        // |> Given a pool with two graphs
+        val pool = GraphPool(testDispatcher)
+        val first = pool.attach(g)
+        val second = pool.attach(Graph())
+
+        // |> When actions are submitted and one graph is detached
+        repeat(3) { first.action { } }
+        second.action { }
+        second.detach()
+
+        // |> Then the metrics reflect the work done
+        val metrics = pool.metrics()
+        assertEquals(1, metrics.graphs)
+        assertEquals(4, metrics.submittedActions)
+        assertEquals(4, metrics.completedActions)
+        assertEquals(0, metrics.queuedActions)
+    }
+
+    @Test
+    fun graphYieldsAfterQuantum() {
+        // |> Given a pool with a small quantum
+        val pool = GraphPool(testDispatcher, 2)
+        val pooled = pool.attach(g)
+
+        // |> When more actions than the quantum are submitted
+        repeat(5) { pooled.action { } }
+
+        // |> Then the graph gives up its turn after each quantum
+        assertEquals(2, pool.metrics().yields)
+    }
+
+    @Test
+    fun failingActionCompletesItsJobExceptionally() {
+        // |> Given a graph attached to a pool
+        val pool = GraphPool(testDispatcher)
+        val pooled = pool.attach(g)
+
+        // |> When a pooled action throws
+        val failed = pooled.action { throw IllegalStateException("fails") }
+        val next = pooled.action { r_a.update(1) }
+
+        // |> Then its job fails and later actions still run
+        assertTrue(failed.isCancelled)
+        assertTrue(next.isCompleted && !next.isCancelled)
+        assertEquals(1L, r_a.traceValue)
+    }
+
+    @Test
+    fun detachedGraphRejectsActions() {
+        // |> Given a detached graph
+        val pool = GraphPool(testDispatcher)
+        val pooled = pool.attach(g)
+        pooled.detach()
+
+        // |> When an action is submitted
+        val job = pooled.action { r_a.update(1) }
+
+        // |> Then it is cancelled without running
+        assertTrue(job.isCancelled)
+        assertEquals(0L, r_a.traceValue)
+    }
+}
@@ -265,4 +265,27 @@ class MomentTest : AbstractBehaviorGraphTest() {
         assertEquals(8, typedMomentUpdated)
     }
 
+    @Test
+    fun canObserveTypedMomentValuesWithoutPairs() {
+        // |> Given a typed moment that can carry null
+        val tm1 = ext.typedMoment<String?>("tm1")
+        ext.addToGraphWithAction()
+
+        // |> When we observe values and events separately
+        val values = mutableListOf<String?>()
+        var lastEvent: Event? = null
+        tm1.observeValueUpdates { value, event ->
+            values.add(value)
+            lastEvent = event
+        }
+        tm1.updateWithAction("a")
+        tm1.updateWithAction(null)
+
+        // |> Then each update is delivered, including null values
+        assertEquals(listOf("a", null), values)
+        assertEquals(g.lastEvent, lastEvent)
+        // and the slot is cleared after the event
+        assertFalse(tm1.justUpdated)
+        assertNull(tm1.event)
+    }
 }
@@ -0,0 +1,166 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class ObserverRegistryTest : AbstractBehaviorGraphTest() {
+    @Test
+    fun observersShareOneBehavior() {
+        // |> Given many observers of a state
+        val s1 = ext.state(0)
+        val behaviorsBefore = ext.behaviors.size
+        val seen = mutableListOf<Int>()
+        repeat(100) { i ->
+            s1.observe { seen.add(i) }
+        }
+        ext.addToGraphWithAction()
+
+        // |> When the state updates
+        s1.updateWithAction(1)
+
+        // |> Then one behavior serves them all and each is called once in the order added
+        assertEquals(behaviorsBefore + 1, ext.behaviors.size)
+        assertEquals((0 until 100).toList(), seen)
+    }
+
+    @Test
+    fun observersReceiveValueAtEndOfEvent() {
+        // |> Given an observer of a state
+        val s1 = ext.state(0)
+        var observed: Int? = null
+        s1.observe { observed = it }
+        ext.addToGraphWithAction()
+
+        // |> When the state updates
+        var duringEvent: Int? = null
+        g.action {
+            s1.update(2)
+            duringEvent = observed
+        }
+
+        // |> Then the observer is called with the new value after the event's behaviors
+        assertNull(duringEvent)
+        assertEquals(2, observed)
+    }
+
+    @Test
+    fun cancelledObserverIsNotCalled() {
+        // |> Given two observers of a state that is already in the graph
+        val seen = mutableListOf<String>()
+        val first = r_a.observe { seen.add("first $it") }
+        r_a.observe { seen.add("second $it") }
+
+        // |> When one is cancelled
+        first.cancel()
+        r_a.updateWithAction(1)
+
+        // |> Then only the other is called
+        assertFalse(first.isActive)
+        assertEquals(listOf("second 1"), seen)
+    }
+
+    @Test
+    fun observeUpdatesSharesTheRegistry() {
+        // |> Given many observeUpdates observers of a state, a moment and a typed moment
+        val s1 = ext.state(0)
+        val m1 = ext.moment()
+        val tm1 = ext.typedMoment<Int>()
+        ext.addToGraphWithAction()
+        val behaviorsBefore = ext.behaviors.size
+        var calls = 0
+        val observations = List(10) {
+            listOf(
+                s1.observeUpdates { calls++ },
+                m1.observeUpdates { calls++ },
+                tm1.observeUpdates { calls++ }
+            )
+        }.flatten()
+
+        // |> When they update
+        g.action {
+            s1.update(1)
+            m1.update()
+            tm1.update(1)
+        }
+
+        // |> Then one behavior serves each resource
+        assertEquals(behaviorsBefore + 3, ext.behaviors.size)
+        assertEquals(30, calls)
+
+        // |> And removing them early stops them
+        observations.forEach { it.removeEarly() }
+        g.action {
+            s1.update(2)
+            m1.update()
+        }
+        assertEquals(30, calls)
+    }
+
+    @Test
+    fun cancellingMostObserversShrinksTheRegistry() {
+        // |> Given a state with many observers and one with a few
+        val s1 = ext.state(0)
+        val s2 = ext.state(0)
+        val seen = mutableListOf<Int>()
+        val observations = List(100) { i -> s1.observe { seen.add(i) } }
+        repeat(10) { s2.observe { } }
+
+        // |> When most of them are cancelled without the state updating
+        observations.take(90).forEach { it.cancel() }
+
+        // |> Then the empty slots are let go of right away
+        assertTrue(s1.estimatedBytes() - s2.estimatedBytes() < FootprintEstimate.list(100) - FootprintEstimate.list(10))
+
+        // |> And the remaining observers are still called in order
+        ext.addToGraphWithAction()
+        s1.updateWithAction(1)
+        assertEquals((90 until 100).toList(), seen)
+    }
+
+    @Test
+    fun observerCanCancelDuringDispatch() {
+        // |> Given an observer that cancels another when called
+        val seen = mutableListOf<Long>()
+        var second: Observation? = null
+        r_a.observe { second?.cancel() }
+        second = r_a.observe { seen.add(it) }
+        val third = r_a.observe { seen.add(it * 10) }
+
+        // |> When the state updates twice
+        r_a.updateWithAction(1)
+        r_a.updateWithAction(2)
+
+        // |> Then the cancelled observer is skipped and the rest are still called
+        assertEquals(listOf(10L, 20L), seen)
+        assertTrue(third.isActive)
+    }
+
+    @Test
+    fun momentObserversReceiveEvent() {
+        // |> Given observers of a moment and a typed moment
+        val m1 = ext.moment()
+        val m2 = ext.typedMoment<String>()
+        var momentEvent: Event? = null
+        var typedValue: String? = null
+        var typedEvent: Event? = null
+        m1.observe { momentEvent = it }
+        m2.observe { value, event ->
+            typedValue = value
+            typedEvent = event
+        }
+        ext.addToGraphWithAction()
+
+        // |> When they update
+        g.action {
+            m1.update()
+            m2.update("hi")
+        }
+
+        // |> Then the observers get the event and value
+        assertEquals(g.lastEvent, momentEvent)
+        assertEquals("hi", typedValue)
+        assertEquals(g.lastEvent, typedEvent)
+    }
+}
@@ -0,0 +1,135 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class PrimitiveStateTest : AbstractBehaviorGraphTest() {
+    @Test
+    fun updatesAndFiltersDuplicates() {
+        // |> Given an int state in the graph
+        val sr1 = ext.intState(1, "sr1")
+        ext.addToGraphWithAction()
+
+        // |> When it is updated
+        sr1.updateWithAction(2)
+
+        // |> Then it has the new value
+        assertEquals(2, sr1.value)
+        assertEquals(g.lastEvent, sr1.event)
+
+        // |> And when updated with the same value
+        val entered = sr1.event
+        sr1.updateWithAction(2)
+
+        // |> Then update doesn't happen
+        assertEquals(entered, sr1.event)
+    }
+
+    @Test
+    fun canOverrideDuplicateFilter() {
+        // |> Given a boolean state in the graph
+        val sr1 = ext.booleanState(true, "sr1")
+        ext.addToGraphWithAction()
+
+        // |> When updated with same value and filtering off
+        g.action {
+            sr1.updateForce(true)
+        }
+
+        // |> Then update does happen
+        assertEquals(g.lastEvent, sr1.event)
+    }
+
+    @Test
+    fun justChanged() {
+        // |> Given a double state resource
+        val sr1 = ext.doubleState(0.0, "sr1")
+        var changed = false
+        var changedTo = false
+        var changedFrom = false
+        var changedToFrom = false
+        ext.behavior()
+            .demands(sr1)
+            .runs {
+                changed = sr1.justUpdated
+                changedTo = sr1.justUpdatedTo(1.5)
+                changedFrom = sr1.justUpdatedFrom(0.0)
+                changedToFrom = sr1.justUpdatedToFrom(1.5, 0.0)
+            }
+        ext.addToGraphWithAction()
+
+        // |> When it updates
+        sr1.updateWithAction(1.5)
+
+        // |> Then its justChanged methods work
+        assertTrue(changed)
+        assertTrue(changedTo)
+        assertTrue(changedFrom)
+        assertTrue(changedToFrom)
+        // and they don't work outside an event
+        assertFalse(sr1.justUpdated)
+        assertFalse(sr1.justUpdatedFrom(0.0))
+    }
+
+    @Test
+    fun traceIsValueFromStartOfEvent() {
+        // |> Given a long state resource in the graph
+        val sr1 = ext.longState(0, "sr1")
+        ext.addToGraphWithAction()
+
+        // |> When it is updated multiple times in an action
+        var traceValue: Long? = null
+        var traceEvent: Event? = null
+        g.action {
+            sr1.update(1)
+            sr1.update(2)
+            g.sideEffect {
+                traceValue = sr1.traceValue
+                traceEvent = sr1.traceEvent
+            }
+        }
+
+        // |> Then trace is the value from the beginning of the event
+        assertEquals(0L, traceValue)
+        assertEquals(Event.InitialEvent, traceEvent)
+        // and afterwards trace is the current value
+        assertEquals(2L, sr1.traceValue)
+        assertEquals(g.lastEvent, sr1.traceEvent)
+    }
+
+    @Test
+    fun suppliedStateIsUpdatedBySupplier() {
+        // |> Given a supplied int state
+        val sr1 = ext.intState(0, "sr1")
+        val mr1 = ext.moment("mr1")
+        ext.behavior()
+            .supplies(sr1)
+            .demands(mr1)
+            .runs {
+                sr1.update(sr1.value + 1)
+            }
+        var seen = 0
+        ext.behavior()
+            .demands(sr1)
+            .runs {
+                seen = sr1.value
+            }
+        ext.addToGraphWithAction()
+
+        // |> When the supplier runs
+        mr1.updateWithAction()
+
+        // |> Then demanding behaviors see the new value
+        assertEquals(1, seen)
+    }
+
+    @Test
+    fun checkUpdateOutsideEventIsAnError() {
+        val sr1 = ext.intState(1, "sr1")
+        assertFails {
+            sr1.update(2)
+        }
+    }
+}
@@ -0,0 +1,91 @@
+//
+// Copyright Yahoo 2021
+//
+package behaviorgraph
+
+import kotlin.test.*
+
+class StateSnapshotTest : AbstractBehaviorGraphTest() {
+    @Test
+    fun snapshotHoldsValuesFromEndOfEvent() {
+        // |> Given a publisher for several states
+        val name = ext.state("a")
+        val count = ext.intState(0)
+        val items = ext.listState(listOf(1))
+        val publisher = StateSnapshotPublisher(ext, name, count, items)
+        ext.addToGraphWithAction()
+
+        // |> When they update together
+        g.action {
+            name.update("b")
+            count.update(2)
+            items.add(2)
+        }
+
+        // |> Then the snapshot has all the new values from that event
+        val snapshot = publisher.snapshot
+        assertEquals(g.lastEvent.sequence, snapshot.sequence)
+        assertEquals("b", snapshot[name])
+        assertEquals(2, snapshot[count])
+        assertEquals(listOf(1, 2), snapshot[items])
+    }
+
+    @Test
+    fun snapshotIsNotChangedByLaterEvents() {
+        // |> Given a snapshot that has been read
+        val items = ext.listState(listOf(1))
+        val count = ext.intState(0)
+        val publisher = StateSnapshotPublisher(ext, items, count)
+        ext.addToGraphWithAction()
+        val before = publisher.snapshot
+
+        // |> When the states change again
+        g.action {
+            items.add(2)
+            count.update(1)
+        }
+
+        // |> Then the earlier snapshot keeps its values and a new one is published
+        assertEquals(listOf(1), before[items])
+        assertEquals(0, before[count])
+        assertEquals(listOf(1, 2), publisher.snapshot[items])
+        assertTrue(publisher.snapshot.sequence > before.sequence)
+    }
+
+    @Test
+    fun snapshotStartsWithInitialValues() {
+        // |> Given a publisher whose extent has not been added
+        val count = ext.longState(5)
+
+        // |> When it is created
+        val publisher = StateSnapshotPublisher(ext, count)
+
+        // |> Then the snapshot has the initial values
+        assertEquals(5L, publisher.snapshot[count])
+    }
+
+    @Test
+    fun publisherAddedLaterPublishesUpdates() {
+        // |> Given a publisher created for states that are already in the graph
+        val publisher = StateSnapshotPublisher(setupExt, r_a, r_b)
+
+        // |> When one of them updates
+        r_a.updateWithAction(4)
+
+        // |> Then the snapshot is published
+        assertEquals(4L, publisher.snapshot[r_a])
+        assertEquals(0L, publisher.snapshot[r_b])
+    }
+
+    @Test
+    fun readingStateOutsideSnapshotFails() {
+        // |> Given a snapshot
+        val publisher = StateSnapshotPublisher(ext, ext.state(1))
+
+        // |> When reading a state it does not include
+        // |> Then raise an error
+        assertFails {
+            publisher.snapshot[r_a]
+        }
+    }
+}
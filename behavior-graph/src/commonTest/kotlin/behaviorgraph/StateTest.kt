@@ -57,6 +57,79 @@ class StateTest : AbstractBehaviorGraphTest() {
         assertEquals(sr1.event, g.lastEvent)
     }
 
+    @Test
+    fun canChooseEquality() {
+        // |> Given states with identity, never and version based equality
+        data class Doc(val version: Long, val text: String)
+        val first = Doc(1, "a")
+        val sr1 = ext.state(first, "sr1", StateEquality.identity())
+        val sr2 = ext.state(mutableListOf(1), "sr2", StateEquality.never())
+        val sr3 = ext.state(first, "sr3", StateEquality.byVersion { it.version })
+        ext.addToGraphWithAction()
+        val entered = sr1.event
+
+        // |> When updated with an equal but different instance
+        sr1.updateWithAction(Doc(1, "a"))
+        // |> Then identity equality sees a change
+        assertEquals(g.lastEvent, sr1.event)
+        assertNotEquals(entered, sr1.event)
+
+        // |> When a mutable value is updated with the same instance
+        g.action {
+            sr2.value.add(2)
+            sr2.update(sr2.value)
+        }
+        // |> Then never equality still propagates
+        assertEquals(g.lastEvent, sr2.event)
+
+        // |> When a value with the same version is set
+        val versionEntered = sr3.event
+        sr3.updateWithAction(Doc(1, "changed"))
+        // |> Then the update is dropped
+        assertEquals(versionEntered, sr3.event)
+        sr3.updateWithAction(Doc(2, "changed"))
+        assertEquals(g.lastEvent, sr3.event)
+    }
+
+    @Test
+    fun versionEqualityPropagatesSameInstanceChangedInPlace() {
+        // |> Given a state holding a mutable value that bumps its version when changed
+        class Doc(var version: Long, var text: String)
+        val doc = Doc(1, "a")
+        val sr1 = ext.state(doc, "sr1", StateEquality.byVersion { it.version })
+        ext.addToGraphWithAction()
+
+        // |> When the same instance is changed and passed to update
+        g.action {
+            doc.text = "b"
+            doc.version = 2
+            sr1.update(doc)
+        }
+
+        // |> Then the update propagates
+        assertEquals(g.lastEvent, sr1.event)
+
+        // |> And updating again without a new version is dropped
+        val entered = sr1.event
+        sr1.updateWithAction(doc)
+        assertEquals(entered, sr1.event)
+    }
+
+    @Test
+    fun canUseCustomEquality() {
+        // |> Given a state that ignores case
+        val sr1 = ext.state("a", "sr1") { current, new -> current.equals(new, ignoreCase = true) }
+        ext.addToGraphWithAction()
+        val entered = sr1.event
+
+        // |> When updated with a value equal ignoring case
+        sr1.updateWithAction("A")
+
+        // |> Then the update doesn't happen
+        assertEquals(entered, sr1.event)
+        assertEquals("a", sr1.value)
+    }
+
     @Test
     fun canBeANullableState() {
         // Motivation: nullable states are useful for modeling false/true with data
@@ -217,7 +290,34 @@ class StateTest : AbstractBehaviorGraphTest() {
         mr1.updateWithAction()
 
         // |> Then the start state is no longer available after the event
-        assertNull(sr1.priorStateDuringEvent)
+        assertEquals(1, sr1.traceValue)
+        assertEquals(sr1.event, sr1.traceEvent)
+    }
+
+    @Test
+    fun traceIsCorrectAfterFailedEvent() {
+        // |> Given a state updated in an event that fails
+        val sr1 = ext.state(0, "sr1")
+        ext.addToGraphWithAction()
+        assertFails {
+            g.action {
+                sr1.update(1)
+                throw IllegalStateException("fail")
+            }
+        }
+
+        // |> When it is updated in the next event, which reuses the failed sequence
+        var traceValue: Int? = null
+        g.action {
+            sr1.update(2)
+            g.sideEffect {
+                traceValue = sr1.traceValue
+            }
+        }
+
+        // |> Then trace is the value at the start of this event
+        assertEquals(1, traceValue)
+        assertEquals(2, sr1.value)
     }
 
     @Test
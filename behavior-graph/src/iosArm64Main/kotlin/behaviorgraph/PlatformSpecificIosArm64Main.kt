@@ -2,8 +2,9 @@ package behaviorgraph
 
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.sync.Mutex
+import kotlin.concurrent.AtomicInt
 
-@OptIn(kotlin.experimental.ExperimentalNativeApi::class)
+@OptIn(kotlin.experimental.ExperimentalNativeApi::class, kotlin.ExperimentalStdlibApi::class)
 internal actual fun makePlatformSpecific(): PlatformSpecific {
     return object : PlatformSpecific {
         override fun assert(condition: Boolean, lazyMessage: () -> String) {
@@ -35,5 +36,30 @@ internal actual fun makePlatformSpecific(): PlatformSpecific {
         override fun defaultNameForExtent(extent: Extent<*>): String {
             return "Extent"
         }
+
+        override fun makeAtomicCounter(): AtomicCounter {
+            val counter = AtomicInt(0)
+            return object : AtomicCounter {
+                override fun getAndIncrement(): Int = counter.getAndIncrement()
+                override fun get(): Int = counter.value
+            }
+        }
+
+        override fun makeOffHeapDoubleStorage(size: Int): DoubleStorage? {
+            // Kotlin/Native arrays are already outside any moving collector, the array storage is used
+            return null
+        }
+
+        override fun makeWeakReference(referent: Any): WeakReference {
+            val reference = kotlin.native.ref.WeakReference(referent)
+            return object : WeakReference {
+                override fun get(): Any? = reference.get()
+            }
+        }
+
+        override fun capturesGraphObject(function: Any, context: Any?): Boolean? {
+            // closures don't expose what they capture without reflection
+            return null
+        }
     }
 }
\ No newline at end of file
@@ -41,5 +41,38 @@ internal actual fun makePlatformSpecific(): PlatformSpecific {
         override fun defaultNameForExtent(extent: Extent<*>): String {
             return extent.asDynamic().constructor.name as? String ?: "Extent"
         }
+
+        override fun makeAtomicCounter(): AtomicCounter {
+            // JS is single threaded, so a plain counter is enough
+            return object : AtomicCounter {
+                private var counter = 0
+                override fun getAndIncrement(): Int = counter++
+                override fun get(): Int = counter
+            }
+        }
+
+        override fun makeOffHeapDoubleStorage(size: Int): DoubleStorage? {
+            // typed arrays are still managed by the JS heap so there is no separate off heap option
+            return null
+        }
+
+        override fun makeWeakReference(referent: Any): WeakReference {
+            val weakRefClass: dynamic = js("typeof WeakRef === 'undefined' ? null : WeakRef")
+            if (weakRefClass == null) {
+                // older runtimes have no weak references, the referent is kept and never reported as collected
+                return object : WeakReference {
+                    override fun get(): Any? = referent
+                }
+            }
+            val reference: dynamic = js("new weakRefClass(referent)")
+            return object : WeakReference {
+                override fun get(): Any? = reference.deref()
+            }
+        }
+
+        override fun capturesGraphObject(function: Any, context: Any?): Boolean? {
+            // closures don't expose what they capture
+            return null
+        }
     }
 }
\ No newline at end of file
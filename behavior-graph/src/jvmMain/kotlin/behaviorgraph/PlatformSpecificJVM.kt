@@ -2,6 +2,57 @@ package behaviorgraph
 
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.sync.Mutex
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Resource fields declared directly on each class, already made accessible.
+ * Computed the first time a class is seen so naming many instances of the same extent class
+ * doesn't repeat the reflection.
+ */
+private val resourceFields = object : ClassValue<Array<Field>>() {
+    override fun computeValue(type: Class<*>): Array<Field> {
+        val fields = mutableListOf<Field>()
+        for (field in type.declaredFields) {
+            // iterate through each field and see if its a resource subclass
+            if (Resource::class.java.isAssignableFrom(field.type)) {
+                try {
+                    // sometimes fields aren't accessible to reflection, try enabling that
+                    field.isAccessible = true // throws error if not possible
+                    fields.add(field)
+                } catch (ex: Exception) {
+                    // throws error if we cannot make fields accessible for security reasons
+                    // catching the error is fine here, it just means we won't get debug names
+                }
+            }
+        }
+        return fields.toTypedArray()
+    }
+}
+
+/**
+ * Instance fields that can hold references, such as the values a lambda captured, already made accessible.
+ */
+private val referenceFields = object : ClassValue<Array<Field>>() {
+    override fun computeValue(type: Class<*>): Array<Field> {
+        val fields = mutableListOf<Field>()
+        for (field in type.declaredFields) {
+            if (field.type.isPrimitive || Modifier.isStatic(field.modifiers)) {
+                continue
+            }
+            try {
+                field.isAccessible = true
+                fields.add(field)
+            } catch (ex: Exception) {
+                // fields we can't read are skipped, the check is only a debugging aid
+            }
+        }
+        return fields.toTypedArray()
+    }
+}
 
 internal actual fun makePlatformSpecific(): PlatformSpecific {
     return object : PlatformSpecific {
@@ -21,21 +72,12 @@ internal actual fun makePlatformSpecific(): PlatformSpecific {
         }
 
         override fun nameResources(focus: Any) {
-            try {
-                focus.javaClass.declaredFields.forEach { field ->
-                    // iterate through each field and see if its a resource subclass
-                    if ((Resource::class.java as Class).isAssignableFrom(field.type)) {
-                        // sometimes fields aren't accessible to reflection, try enabling that
-                        field.isAccessible = true // throws error if not possible
-                        val resource = field.get(focus) as Resource
-                        if (resource.debugName == null) {
-                            resource.debugName = field.name
-                        }
-                    }
+            // field lookup happens once per class, each instance only reads the cached fields
+            for (field in resourceFields.get(focus.javaClass)) {
+                val resource = field.get(focus) as? Resource ?: continue
+                if (resource.debugName == null) {
+                    resource.debugName = field.name
                 }
-            } catch (ex: Exception) {
-                // throws error if we cannot make fields accessible for security reasons
-                // catching the error is fine here, it just means we won't get debug names
             }
         }
 
@@ -50,5 +92,43 @@ internal actual fun makePlatformSpecific(): PlatformSpecific {
         override fun defaultNameForExtent(extent: Extent<*>): String {
             return extent.javaClass.simpleName
         }
+
+        override fun makeAtomicCounter(): AtomicCounter {
+            val counter = AtomicInteger(0)
+            return object : AtomicCounter {
+                override fun getAndIncrement(): Int = counter.getAndIncrement()
+                override fun get(): Int = counter.get()
+            }
+        }
+
+        override fun makeOffHeapDoubleStorage(size: Int): DoubleStorage {
+            val bytes = size.toLong() * 8
+            require(size >= 0 && bytes <= Int.MAX_VALUE) { "Off heap storage is limited to ${Int.MAX_VALUE / 8} doubles, asked for $size" }
+            val buffer = ByteBuffer.allocateDirect(bytes.toInt()).order(ByteOrder.nativeOrder()).asDoubleBuffer()
+            return object : DoubleStorage {
+                override val size: Int = buffer.capacity()
+                override fun get(index: Int): Double = buffer.get(index)
+                override fun set(index: Int, value: Double) {
+                    buffer.put(index, value)
+                }
+            }
+        }
+
+        override fun makeWeakReference(referent: Any): WeakReference {
+            val reference = java.lang.ref.WeakReference(referent)
+            return object : WeakReference {
+                override fun get(): Any? = reference.get()
+            }
+        }
+
+        override fun capturesGraphObject(function: Any, context: Any?): Boolean {
+            for (field in referenceFields.get(function.javaClass)) {
+                val value = field.get(function) ?: continue
+                if (value is Graph || value is Extent<*> || value is Resource || value is Behavior<*> || value === context) {
+                    return true
+                }
+            }
+            return false
+        }
     }
 }
\ No newline at end of file
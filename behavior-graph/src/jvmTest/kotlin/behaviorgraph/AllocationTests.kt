@@ -0,0 +1,98 @@
+package behaviorgraph
+
+import java.lang.management.ManagementFactory
+import kotlin.test.*
+
+class AllocationTests : AbstractBehaviorGraphTest() {
+    private val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    private fun allocatedBytes(): Long = threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+
+    @Test
+    fun activatingBehaviorsDoesNotAllocatePerActivation() {
+        // |> Given a moment with many demanding behaviors
+        val m1 = ext.moment()
+        val count = 10_000
+        for (i in 0 until count) {
+            ext.behavior()
+                .demands(m1)
+                .runs { }
+        }
+        ext.addToGraphWithAction()
+        // and enough events have run that sequences are outside the range of cached boxed Longs
+        repeat(200) {
+            m1.updateWithAction()
+        }
+
+        // |> When the moment updates and activates every behavior
+        val before = allocatedBytes()
+        m1.updateWithAction()
+        val allocated = allocatedBytes() - before
+
+        // |> Then the event allocates far less than a boxed sequence per activation would
+        assertTrue(allocated < count * 2, "allocated $allocated bytes for $count activations")
+    }
+
+    @Test
+    fun updatingPrimitiveStatesDoesNotAllocatePerUpdate() {
+        // |> Given a behavior that updates many int states
+        val count = 10_000
+        val m1 = ext.moment()
+        val states = Array(count) { ext.intState(0) }
+        var next = 1000
+        ext.behavior()
+            .demands(m1)
+            .supplies(*states)
+            .runs {
+                val value = next++
+                for (state in states) {
+                    state.update(value)
+                }
+            }
+        ext.addToGraphWithAction()
+        repeat(200) {
+            m1.updateWithAction()
+        }
+
+        // |> When they are all updated
+        val before = allocatedBytes()
+        m1.updateWithAction()
+        val allocated = allocatedBytes() - before
+
+        // |> Then the values are stored without boxing or history objects
+        assertEquals(next - 1, states[0].traceValue)
+        assertTrue(allocated < count * 2, "allocated $allocated bytes for $count updates")
+    }
+
+    @Test
+    fun updatingReferenceStatesDoesNotAllocateHistory() {
+        // |> Given a behavior that updates many states to preallocated values
+        val count = 10_000
+        val m1 = ext.moment()
+        val values = Array(2) { Any() }
+        val states = Array(count) { ext.state(values[0]) }
+        var flip = 0
+        ext.behavior()
+            .demands(m1)
+            .supplies(*states)
+            .runs {
+                flip = 1 - flip
+                for (state in states) {
+                    state.update(values[flip])
+                }
+            }
+        ext.addToGraphWithAction()
+        repeat(200) {
+            m1.updateWithAction()
+        }
+
+        // |> When they are all updated
+        val before = allocatedBytes()
+        m1.updateWithAction()
+        val allocated = allocatedBytes() - before
+
+        // |> Then no history objects are created for the updates
+        assertSame(values[flip], states[0].traceValue)
+        assertTrue(allocated < count * 2, "allocated $allocated bytes for $count updates")
+    }
+}
@@ -236,4 +236,26 @@ class ConcurrencyTests : AbstractBehaviorGraphTest() {
         assertNotEquals(sideEffectThread, backgroundThread)
     }
 
-}
\ No newline at end of file
+    @Test
+    fun actionsQueuedFromManyThreadsAllComplete() {
+        // |> Given several threads creating actions as fast as they can
+        ext.addToGraphWithAction()
+        val futures = ConcurrentLinkedQueue<Future<*>>()
+        val threads = List(4) {
+            Thread {
+                repeat(20_000) {
+                    futures.add(ext.action { }.asCompletableFuture())
+                }
+            }
+        }
+
+        // |> When they all finish without any action created afterwards
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        // |> Then every action has run, including ones queued just as another thread let go of the graph
+        for (future in futures) {
+            future.get(5, TimeUnit.SECONDS)
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package behaviorgraph
+
+import java.lang.ref.WeakReference
+import kotlin.test.*
+
+class EventPayloadJvmTest : AbstractBehaviorGraphTest() {
+    private fun collectUntil(condition: () -> Boolean): Boolean {
+        repeat(20) {
+            System.gc()
+            if (condition()) {
+                return true
+            }
+            Thread.sleep(10)
+        }
+        return false
+    }
+
+    // payload is only reachable from this frame and the resource
+    private fun updateWithPayload(moment: TypedMoment<Any>): WeakReference<Any> {
+        val payload = Any()
+        moment.updateWithAction(payload)
+        return WeakReference(payload)
+    }
+
+    private fun updateWithPayload(moment: AccumulatingMoment<Any>): WeakReference<Any> {
+        val payload = Any()
+        moment.updateWithAction(payload)
+        return WeakReference(payload)
+    }
+
+    private fun updateWithPayload(state: State<Any>): WeakReference<Any> {
+        val payload = Any()
+        state.updateWithAction(payload)
+        return WeakReference(payload)
+    }
+
+    private fun addAndRemove(list: ListState<Any>): WeakReference<Any> {
+        val payload = Any()
+        list.graph.action {
+            list.add(payload)
+            list.remove(payload)
+        }
+        return WeakReference(payload)
+    }
+
+    @Test
+    fun typedMomentReleasesValueAtEndOfEvent() {
+        // |> Given a typed moment in the graph
+        val m1 = ext.typedMoment<Any>()
+        var seen: Any? = null
+        ext.behavior()
+            .demands(m1)
+            .runs {
+                seen = m1.value
+            }
+        ext.addToGraphWithAction()
+
+        // |> When it updates with a value nothing else holds on to after the event
+        val payload = updateWithPayload(m1)
+        assertNotNull(seen)
+        seen = null
+
+        // |> Then the moment doesn't keep the value reachable
+        assertTrue(collectUntil { payload.get() == null })
+    }
+
+    @Test
+    fun accumulatingMomentReleasesValuesAtEndOfEvent() {
+        // |> Given an accumulating moment in the graph
+        val m1 = ext.accumulatingMoment<Any>()
+        ext.addToGraphWithAction()
+
+        // |> When it collects a value nothing else holds on to after the event
+        val payload = updateWithPayload(m1)
+
+        // |> Then the moment doesn't keep the value reachable
+        assertTrue(collectUntil { payload.get() == null })
+    }
+
+    @Test
+    fun listStateReleasesChangeLogAtEndOfEvent() {
+        // |> Given a list state in the graph
+        val ls1 = ext.listState<Any>()
+        ext.addToGraphWithAction()
+
+        // |> When an element is added and removed in the same event
+        val payload = addAndRemove(ls1)
+
+        // |> Then the change log doesn't keep it reachable afterwards
+        assertTrue(collectUntil { payload.get() == null })
+    }
+
+    @Test
+    fun stateReleasesPriorValueAtEndOfEvent() {
+        // |> Given a state whose value was set in an earlier event
+        val sr1 = ext.state<Any>(Any())
+        ext.addToGraphWithAction()
+        val prior = updateWithPayload(sr1)
+        var trace: Any? = null
+        ext.behavior()
+            .demands(sr1)
+            .runs {
+                trace = sr1.traceValue
+            }
+            .addLate()
+
+        // |> When it is updated again and the prior value is read during the event
+        g.action {
+            sr1.update(Any())
+        }
+        assertSame(prior.get(), trace)
+        trace = null
+
+        // |> Then the state doesn't keep the prior value reachable once the event ends
+        assertTrue(collectUntil { prior.get() == null })
+    }
+}
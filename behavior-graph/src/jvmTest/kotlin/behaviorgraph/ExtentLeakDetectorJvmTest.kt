@@ -0,0 +1,80 @@
+package behaviorgraph
+
+import kotlin.test.*
+
+class ExtentLeakDetectorJvmTest : AbstractBehaviorGraphTest() {
+    private fun watchWithDroppedOwner(detector: ExtentLeakDetector, extent: Extent<*>) {
+        // owner is only reachable from this frame
+        detector.watch(extent, Any())
+    }
+
+    private fun collectUntil(condition: () -> Boolean): Boolean {
+        repeat(20) {
+            System.gc()
+            if (condition()) {
+                return true
+            }
+            Thread.sleep(10)
+        }
+        return false
+    }
+
+    @Test
+    fun extentWhoseOwnerWasCollectedIsOrphaned() {
+        // |> Given extents watched with owners that are no longer referenced
+        val detector = g.enableLeakDetection()
+        val leaked = TestExtent(g)
+        val removed = TestExtent(g)
+        g.action {
+            leaked.addToGraph()
+            removed.addToGraph()
+        }
+        watchWithDroppedOwner(detector, leaked)
+        watchWithDroppedOwner(detector, removed)
+
+        // |> When one is removed and the owners are collected
+        removed.removeFromGraphWithAction()
+
+        // |> Then only the extent still in the graph is reported
+        assertTrue(collectUntil { detector.orphanedExtents().isNotEmpty() })
+        assertEquals(listOf<Extent<*>>(leaked), detector.orphanedExtents())
+        assertEquals(listOf<Extent<*>>(leaked), detector.report().orphaned)
+    }
+
+    @Test
+    fun trackedExtentsCanStillBeCollected() {
+        // |> Given tracked extents that are added and forgotten without being removed
+        val detector = g.enableLeakDetection()
+        g.action {
+            repeat(100) {
+                TestExtent(g).addToGraph()
+            }
+        }
+
+        // |> When they are garbage collected
+        // |> Then the detector stops reporting them
+        assertTrue(collectUntil {
+            (detector.report().classes.firstOrNull { it.type == TestExtent::class }?.count ?: 0) < 100
+        })
+    }
+
+    @Test
+    fun neverAddedExtentsAreDroppedOnceOwnersAreCollected() {
+        // |> Given many watched extents that are never added and whose owners are no longer referenced
+        val detector = g.enableLeakDetection()
+        repeat(100) {
+            watchWithDroppedOwner(detector, TestExtent(g))
+        }
+
+        // |> When the owners are collected and more extents are watched
+        assertTrue(collectUntil {
+            repeat(30) {
+                watchWithDroppedOwner(detector, TestExtent(g))
+            }
+            detector.watchedCount < 100
+        })
+
+        // |> Then the detector has let go of them without a report being made
+        assertTrue(detector.watchedCount < 100)
+    }
+}
@@ -0,0 +1,113 @@
+package behaviorgraph
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import kotlin.test.*
+
+class ExtentTemplateJvmTest : AbstractBehaviorGraphTest() {
+    class CapturingItem(g: Graph) : Extent<CapturingItem>(g) {
+        val count = intState(0)
+        val doubled = intState(0)
+
+        init {
+            template.applyTo(this)
+        }
+
+        companion object {
+            val template = ExtentTemplate<CapturingItem> { ext ->
+                ext.behavior()
+                    .demands(ext.count)
+                    .supplies(ext.doubled)
+                    .runs { ext.doubled.update(ext.count.value * 2) }
+            }
+        }
+    }
+
+    class ResourceCapturingItem(g: Graph) : Extent<ResourceCapturingItem>(g) {
+        val count = intState(0)
+        val doubled = intState(0)
+
+        init {
+            template.applyTo(this)
+        }
+
+        companion object {
+            val template = ExtentTemplate<ResourceCapturingItem> { ext ->
+                val doubled = ext.doubled
+                ext.behavior()
+                    .demands(ext.count)
+                    .supplies(ext.doubled)
+                    .runs { doubled.update(it.count.value * 2) }
+            }
+        }
+    }
+
+    class SharedItem(g: Graph) : Extent<SharedItem>(g) {
+        val count = intState(0)
+        val doubled = intState(0)
+
+        init {
+            template.applyTo(this)
+        }
+
+        companion object {
+            val template = ExtentTemplate<SharedItem> { ext ->
+                ext.behavior()
+                    .demands(ext.count)
+                    .supplies(ext.doubled)
+                    .runs { it.doubled.update(it.count.value * 2) }
+            }
+        }
+    }
+
+    @Test
+    fun thunksCapturingTheExtentCannotBeTemplated() {
+        // |> Given a template behavior that captures the extent instead of using ctx
+        // |> When it is recorded
+        // |> Then raise an error
+        assertFails {
+            CapturingItem(g)
+        }
+    }
+
+    @Test
+    fun thunksCapturingAResourceCannotBeTemplated() {
+        // |> Given a template behavior that captures one of the extent's resources
+        // |> When it is recorded
+        // |> Then raise an error
+        assertFails {
+            ResourceCapturingItem(g)
+        }
+    }
+
+    @Test
+    fun templateCanBeAppliedFromManyThreads() {
+        // |> Given threads that each create extents from the same template on their own graph
+        val start = CountDownLatch(1)
+        val failures = ConcurrentLinkedQueue<Throwable>()
+        val threads = List(8) { index ->
+            Thread {
+                try {
+                    start.await()
+                    val graph = Graph()
+                    repeat(200) { i ->
+                        val item = SharedItem(graph)
+                        item.addToGraphWithAction()
+                        item.count.updateWithAction(index + i)
+                        assertEquals((index + i) * 2, item.doubled.traceValue)
+                    }
+                } catch (e: Throwable) {
+                    failures.add(e)
+                }
+            }
+        }
+
+        // |> When they start at the same time
+        threads.forEach { it.start() }
+        start.countDown()
+        threads.forEach { it.join() }
+
+        // |> Then every extent gets working behaviors
+        assertEquals(listOf(), failures.toList())
+    }
+}
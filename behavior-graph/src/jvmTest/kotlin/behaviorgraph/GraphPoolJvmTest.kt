@@ -0,0 +1,67 @@
+package behaviorgraph
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.runBlocking
+import kotlin.test.*
+
+class GraphPoolJvmTest : AbstractBehaviorGraphTest() {
+    class Session(g: Graph) : Extent<Session>(g) {
+        val request = typedMoment<Int>()
+        val total = state(0)
+        var concurrentRuns = 0
+        var maxConcurrentRuns = 0
+
+        init {
+            behavior()
+                .demands(request)
+                .supplies(total)
+                .runs {
+                    concurrentRuns++
+                    maxConcurrentRuns = maxOf(maxConcurrentRuns, concurrentRuns)
+                    total.update(total.value + request.value!!)
+                    concurrentRuns--
+                }
+        }
+    }
+
+    @Test
+    fun manyGraphsRunOnSharedWorkers() {
+        // |> Given many session graphs attached to a pool
+        val pool = GraphPool(Dispatchers.Default, 4)
+        val sessions = List(200) {
+            val graph = Graph()
+            val session = Session(graph)
+            graph.action { session.addToGraph() }
+            Pair(pool.attach(graph), session)
+        }
+
+        // |> When several producer threads submit actions to every session
+        val jobs = java.util.Collections.synchronizedList(mutableListOf<Job>())
+        val producers = List(4) {
+            Thread {
+                for (i in 1..25) {
+                    for ((pooled, session) in sessions) {
+                        jobs.add(pooled.action { session.request.update(i) })
+                    }
+                }
+            }
+        }
+        producers.forEach { it.start() }
+        producers.forEach { it.join() }
+        runBlocking { jobs.toList().joinAll() }
+
+        // |> Then every action runs once and each graph only runs one at a time
+        val expected = 4 * (1..25).sum()
+        for ((pooled, session) in sessions) {
+            assertEquals(expected, session.total.traceValue)
+            assertEquals(1, session.maxConcurrentRuns)
+            assertEquals(0, pooled.queuedActions)
+        }
+        val metrics = pool.metrics()
+        assertEquals(200 * 100, metrics.completedActions)
+        assertEquals(0, metrics.queuedActions)
+        pool.close()
+    }
+}